@@ -0,0 +1,49 @@
+package org.servantscode.ministry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.servantscode.commons.rest.PaginatedResponse;
+import org.servantscode.ministry.db.BenchmarkData;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Cost of rendering the listing and roster responses with Jackson, as the JAX-RS provider does. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+    @Param({"20", "1000"})
+    private int size;
+
+    private ObjectWriter writer;
+    private PaginatedResponse<Ministry> ministries;
+    private List<MinistryEnrollment> enrollments;
+
+    @Setup
+    public void setup() {
+        writer = new ObjectMapper().writer();
+        List<Ministry> results = BenchmarkData.ministries(size);
+        ministries = new PaginatedResponse<>(0, results.size(), results.size() * 10, results);
+        enrollments = BenchmarkData.enrollments(size);
+    }
+
+    @Benchmark
+    public byte[] ministryPage() throws JsonProcessingException {
+        return writer.writeValueAsBytes(ministries);
+    }
+
+    @Benchmark
+    public byte[] enrollmentList() throws JsonProcessingException {
+        return writer.writeValueAsBytes(enrollments);
+    }
+}
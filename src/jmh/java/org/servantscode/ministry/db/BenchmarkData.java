@@ -0,0 +1,90 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.ministry.Ministry;
+import org.servantscode.ministry.MinistryEnrollment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+/** Deterministic rows and objects shaped like a mid-sized parish, shared by the benchmarks. */
+public final class BenchmarkData {
+    private static final String[] WORDS = {"Youth", "Choir", "Lectors", "Ushers", "Hospitality", "Bible", "Study", "Outreach",
+                                           "Finance", "Music", "Altar", "Servers", "Prayer", "Men's", "Women's", "Council"};
+
+    private BenchmarkData() {}
+
+    public static SyntheticResultSet ministryRows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("name", name(i));
+            row.put("description", "Serves the parish through " + name(i).toLowerCase() + " activities and events.");
+            row.put("org_id", 1);
+            row.put("row_version", (long) i);
+            rows.add(row);
+        }
+        return new SyntheticResultSet(asList("id", "name", "description", "org_id", "row_version"), rows);
+    }
+
+    public static SyntheticResultSet roleRows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("ministry_id", i % 50 + 1);
+            row.put("name", WORDS[i % WORDS.length] + " Coordinator");
+            row.put("contact", i % 3 == 0);
+            row.put("leader", i % 7 == 0);
+            row.put("org_id", 1);
+            rows.add(row);
+        }
+        return new SyntheticResultSet(asList("id", "ministry_id", "name", "contact", "leader", "org_id"), rows);
+    }
+
+    public static SyntheticResultSet enrollmentRows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("person_id", i);
+            row.put("person_name", "Person Number " + i);
+            row.put("ministry_id", i % 50 + 1);
+            row.put("ministry_name", name(i % 50 + 1));
+            row.put("role_id", i % 200 + 1);
+            row.put("role", i % 5 == 0? "Leader": "Member");
+            rows.add(row);
+        }
+        return new SyntheticResultSet(asList("person_id", "person_name", "ministry_id", "ministry_name", "role_id", "role"), rows);
+    }
+
+    public static List<Ministry> ministries(int count) {
+        List<Ministry> ministries = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++) {
+            Ministry ministry = new Ministry(i, name(i));
+            ministry.setDescription("Serves the parish through " + name(i).toLowerCase() + " activities and events.");
+            ministries.add(ministry);
+        }
+        return ministries;
+    }
+
+    public static List<MinistryEnrollment> enrollments(int count) {
+        List<MinistryEnrollment> enrollments = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++) {
+            MinistryEnrollment enrollment = new MinistryEnrollment(i, i % 50 + 1, i % 5 == 0? "Leader": "Member");
+            enrollment.setRoleId(i % 200 + 1);
+            enrollment.setPersonName("Person Number " + i);
+            enrollment.setMinistryName(name(i % 50 + 1));
+            enrollments.add(enrollment);
+        }
+        return enrollments;
+    }
+
+    // ----- Private -----
+    private static String name(int i) {
+        return WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+    }
+}
@@ -0,0 +1,62 @@
+package org.servantscode.ministry.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.servantscode.commons.db.ReportStreamingOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/** Cost of writing the enrollment report as CSV, per report. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CsvReportBenchmark {
+    @Param({"1000", "10000"})
+    private int rows;
+
+    private SyntheticResultSet enrollmentRows;
+    private CsvWriter writer;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setup() {
+        enrollmentRows = BenchmarkData.enrollmentRows(rows);
+        writer = new CsvWriter();
+        output = new ByteArrayOutputStream(rows * 80);
+    }
+
+    @Benchmark
+    public int enrollmentReport() throws IOException, SQLException {
+        output.reset();
+        writer.write(output, enrollmentRows.open());
+        return output.size();
+    }
+
+    private static class CsvWriter extends ReportStreamingOutput {
+        private CsvWriter() {
+            super(asList("person_id", "person_name", "ministry_id", "ministry_name", "role_id", "role"));
+        }
+
+        private void write(OutputStream output, ResultSet rs) throws IOException, SQLException {
+            writeCsv(output, rs);
+        }
+
+        @Override
+        public void write(OutputStream output) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
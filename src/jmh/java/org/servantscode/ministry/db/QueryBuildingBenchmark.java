@@ -0,0 +1,63 @@
+package org.servantscode.ministry.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.commons.search.Search;
+import org.servantscode.commons.search.SearchParser;
+import org.servantscode.ministry.Ministry;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and binding the enrollment query, and of parsing search strings, without a database.
+ * Statements are prepared against a stub connection so SQL rendering and parameter binding are included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueryBuildingBenchmark {
+    private EnrollmentDB enrollmentDB;
+    private SearchParser<Ministry> searchParser;
+    private Connection connection;
+
+    @Setup
+    public void setup() {
+        enrollmentDB = new EnrollmentDB();
+        searchParser = new SearchParser<>(Ministry.class, "name");
+
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> method.getReturnType() == boolean.class? false: null);
+        connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> method.getName().equals("prepareStatement")? statement: null);
+    }
+
+    @Benchmark
+    public QueryBuilder enrollmentQuery() {
+        return enrollmentDB.baseQuery(1).where("e.ministry_id=?", 42).where("p.id = person_id").where("m.id = e.ministry_id");
+    }
+
+    @Benchmark
+    public PreparedStatement enrollmentStatement() throws SQLException {
+        return enrollmentQuery().prepareStatement(connection);
+    }
+
+    @Benchmark
+    public Search simpleSearch() {
+        return searchParser.parse("choir");
+    }
+
+    @Benchmark
+    public Search fieldSearch() {
+        return searchParser.parse("name:youth description:\"bible study\"");
+    }
+}
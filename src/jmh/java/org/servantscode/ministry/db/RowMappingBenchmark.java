@@ -0,0 +1,64 @@
+package org.servantscode.ministry.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/** Cost of turning a page of rows into model objects, per page. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RowMappingBenchmark {
+    @Param({"20", "1000"})
+    private int rows;
+
+    private MinistryDB ministryDB;
+    private RoleDB roleDB;
+    private EnrollmentDB enrollmentDB;
+
+    private SyntheticResultSet ministryRows;
+    private SyntheticResultSet roleRows;
+    private SyntheticResultSet enrollmentRows;
+
+    @Setup
+    public void setup() {
+        ministryDB = new MinistryDB();
+        roleDB = new RoleDB();
+        enrollmentDB = new EnrollmentDB();
+
+        ministryRows = BenchmarkData.ministryRows(rows);
+        roleRows = BenchmarkData.roleRows(rows);
+        enrollmentRows = BenchmarkData.enrollmentRows(rows);
+    }
+
+    @Benchmark
+    public void ministries(Blackhole blackhole) throws SQLException {
+        ResultSet rs = ministryRows.open();
+        while (rs.next())
+            blackhole.consume(ministryDB.processRow(rs));
+    }
+
+    @Benchmark
+    public void roles(Blackhole blackhole) throws SQLException {
+        ResultSet rs = roleRows.open();
+        while (rs.next())
+            blackhole.consume(roleDB.processRow(rs));
+    }
+
+    @Benchmark
+    public void enrollments(Blackhole blackhole) throws SQLException {
+        ResultSet rs = enrollmentRows.open();
+        while (rs.next())
+            blackhole.consume(enrollmentDB.processRow(rs));
+    }
+}
@@ -0,0 +1,67 @@
+package org.servantscode.ministry.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory rows exposed through the subset of {@link ResultSet} the mappers and report writers use, so hot
+ * paths can be measured without a database. Each call to {@link #open} returns an independent cursor.
+ */
+public class SyntheticResultSet {
+    private final List<String> columns;
+    private final List<Map<String, Object>> rows;
+
+    public SyntheticResultSet(List<String> columns, List<Map<String, Object>> rows) {
+        this.columns = new ArrayList<>(columns);
+        this.rows = rows;
+    }
+
+    public int size() { return rows.size(); }
+
+    public ResultSet open() {
+        int[] position = {-1};
+        Object[] last = {null};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next": return ++position[0] < rows.size();
+                case "close": return null;
+                case "isClosed": return false;
+                case "wasNull": return last[0] == null;
+                case "getMetaData": return metaData();
+                case "findColumn": return columns.indexOf((String) args[0]) + 1;
+            }
+
+            if(!method.getName().startsWith("get") || args == null || args.length != 1)
+                throw new SQLFeatureNotSupportedException(method.getName());
+
+            String column = args[0] instanceof Integer? columns.get((Integer) args[0] - 1): (String) args[0];
+            Object value = rows.get(position[0]).get(column);
+            last[0] = value;
+            switch (method.getName()) {
+                case "getInt": return value == null? 0: ((Number) value).intValue();
+                case "getLong": return value == null? 0L: ((Number) value).longValue();
+                case "getBoolean": return value != null && (Boolean) value;
+                case "getString": return value == null? null: value.toString();
+                case "getObject": return value;
+                default: throw new SQLFeatureNotSupportedException(method.getName());
+            }
+        });
+    }
+
+    // ----- Private -----
+    private ResultSetMetaData metaData() {
+        return (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount": return columns.size();
+                case "getColumnName":
+                case "getColumnLabel": return columns.get((Integer) args[0] - 1);
+                default: throw new SQLFeatureNotSupportedException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package org.servantscode.ministry.loadtest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Reads and writes load test results as JSON, and compares a run against a stored baseline. */
+public final class Baseline {
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private Baseline() {}
+
+    public static void write(File file, Map<String, EndpointResult> results) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        MAPPER.writeValue(file, results);
+    }
+
+    public static Map<String, EndpointResult> read(File file) throws IOException {
+        return MAPPER.readValue(file, new TypeReference<LinkedHashMap<String, EndpointResult>>() {});
+    }
+
+    /**
+     * Lists the endpoints whose p50 or p99 grew, or whose throughput fell, by more than the given percentage
+     * relative to the baseline. Endpoints missing from either side are skipped.
+     */
+    public static List<String> regressions(Map<String, EndpointResult> baseline, Map<String, EndpointResult> results, double thresholdPercent) {
+        List<String> regressions = new ArrayList<>();
+        double factor = 1 + thresholdPercent / 100;
+        results.forEach((endpoint, result) -> {
+            EndpointResult base = baseline.get(endpoint);
+            if(base == null)
+                return;
+
+            if(result.getP50() > base.getP50() * factor)
+                regressions.add(String.format("%s: p50 %.2fms -> %.2fms", endpoint, base.getP50(), result.getP50()));
+            if(result.getP99() > base.getP99() * factor)
+                regressions.add(String.format("%s: p99 %.2fms -> %.2fms", endpoint, base.getP99(), result.getP99()));
+            if(result.getThroughput() * factor < base.getThroughput())
+                regressions.add(String.format("%s: throughput %.1f/s -> %.1f/s", endpoint, base.getThroughput(), result.getThroughput()));
+        });
+        return regressions;
+    }
+}
@@ -0,0 +1,48 @@
+package org.servantscode.ministry.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+/** Throughput and latency percentiles, in milliseconds, of one endpoint over the measured period. */
+public class EndpointResult {
+    private long requests;
+    private long errors;
+    private double throughput;
+    private double p50;
+    private double p99;
+    private double p999;
+    private double max;
+
+    public EndpointResult() {}
+
+    public EndpointResult(Histogram micros, long errors, int durationSeconds) {
+        this.requests = micros.getTotalCount();
+        this.errors = errors;
+        this.throughput = (double) requests / durationSeconds;
+        this.p50 = micros.getValueAtPercentile(50) / 1000.0;
+        this.p99 = micros.getValueAtPercentile(99) / 1000.0;
+        this.p999 = micros.getValueAtPercentile(99.9) / 1000.0;
+        this.max = micros.getMaxValue() / 1000.0;
+    }
+
+    // ----- Accessors -----
+    public long getRequests() { return requests; }
+    public void setRequests(long requests) { this.requests = requests; }
+
+    public long getErrors() { return errors; }
+    public void setErrors(long errors) { this.errors = errors; }
+
+    public double getThroughput() { return throughput; }
+    public void setThroughput(double throughput) { this.throughput = throughput; }
+
+    public double getP50() { return p50; }
+    public void setP50(double p50) { this.p50 = p50; }
+
+    public double getP99() { return p99; }
+    public void setP99(double p99) { this.p99 = p99; }
+
+    public double getP999() { return p999; }
+    public void setP999(double p999) { this.p999 = p999; }
+
+    public double getMax() { return max; }
+    public void setMax(double max) { this.max = max; }
+}
@@ -0,0 +1,122 @@
+package org.servantscode.ministry.loadtest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.ministry.ServiceConfig;
+import org.servantscode.ministry.db.DBUpgrade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows how membership and person enrollment lookups scale with the size of the enrollment table. Each size is
+ * seeded afresh with parishes of the same shape, so a lookup returns about the same number of rows at every
+ * size, and is timed with the lookup indexes and again with them dropped. With the indexes the time should stay
+ * flat as the table grows, following the size of the result; without them it grows with the table.
+ *
+ * Run through ./gradlew indexScaling; settings are passed as -P properties of the same name.
+ */
+public class IndexScaling {
+    private static final Logger LOG = LogManager.getLogger(IndexScaling.class);
+
+    private static final String[] LOOKUP_INDEXES = {"ministry_enrollments_key", "ministry_enrollments_person_idx",
+                                                    "ministry_enrollments_role_idx", "ministry_roles_ministry_idx",
+                                                    "ministries_org_name_idx"};
+    private static final String ENROLLMENTS = "SELECT e.*, p.name, m.name, r.name " +
+            "FROM people p, ministries m, ministry_enrollments e LEFT JOIN ministry_roles r ON role_id=r.id " +
+            "WHERE p.org_id=? AND m.org_id=? AND r.org_id=? AND p.id = person_id AND m.id = e.ministry_id";
+
+    public static void main(String[] args) throws Exception {
+        int dbPort = ServiceConfig.getInt("LOADTEST_DB_PORT", 5432);
+        String[] sizes = ServiceConfig.getString("LOADTEST_INDEX_ORGS", "10,100,1000").split(",");
+        int iterations = ServiceConfig.getInt("LOADTEST_INDEX_ITERATIONS", 200);
+
+        StringBuilder table = new StringBuilder(String.format("%n%8s %12s %-22s %14s %14s%n",
+                "orgs", "enrollments", "lookup", "indexed ms", "unindexed ms"));
+        try (LoadTestDatabase db = new LoadTestDatabase(dbPort, ServiceConfig.getString("LOADTEST_DB_NAME", "servantscode"),
+                                                        ServiceConfig.getString("DB_USER", "loadtest"),
+                                                        ServiceConfig.getString("DB_PASSWORD", "loadtest"))) {
+            db.createExternalTables();
+            new DBUpgrade().doUpgrade();
+
+            for(String size: sizes) {
+                int orgs = Integer.parseInt(size.trim());
+                try (Connection conn = db.connect();
+                     Statement stmt = conn.createStatement()) {
+                    stmt.execute("TRUNCATE organizations, people, ministries, ministry_roles, ministry_enrollments RESTART IDENTITY CASCADE");
+                }
+                // Each parish has 50 ministries and 200 people in 3 ministries each, so a roster is about 12 people.
+                db.seed(orgs, 50, 5, 200, 3);
+
+                try (Connection conn = db.connect()) {
+                    long rows = count(conn);
+                    Map<Integer, int[]> ministries = db.idsByOrg("ministries");
+                    Map<Integer, int[]> people = db.idsByOrg("people");
+                    int orgId = ministries.keySet().iterator().next();
+
+                    String membership = ENROLLMENTS + " AND e.ministry_id=?";
+                    String person = ENROLLMENTS + " AND person_id=?";
+                    double[] membershipMillis = timeBothWays(conn, membership, orgId, ministries.get(orgId), iterations);
+                    double[] personMillis = timeBothWays(conn, person, orgId, people.get(orgId), iterations);
+
+                    table.append(String.format("%8d %12d %-22s %14.3f %14.3f%n", orgs, rows, "membership by ministry", membershipMillis[0], membershipMillis[1]));
+                    table.append(String.format("%8d %12d %-22s %14.3f %14.3f%n", orgs, rows, "enrollments by person", personMillis[0], personMillis[1]));
+                }
+            }
+        }
+        LOG.info(table.toString());
+    }
+
+    // ----- Private -----
+    private static long count(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(1) FROM ministry_enrollments")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /** Mean milliseconds per lookup with the indexes, then without them. The drop is rolled back afterwards. */
+    private static double[] timeBothWays(Connection conn, String sql, int orgId, int[] ids, int iterations) throws SQLException {
+        double indexed = time(conn, sql, orgId, ids, iterations);
+
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for(String index: LOOKUP_INDEXES)
+                stmt.execute("DROP INDEX " + index);
+            return new double[] {indexed, time(conn, sql, orgId, ids, iterations)};
+        } finally {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static double time(Connection conn, String sql, int orgId, int[] ids, int iterations) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            // Warm the cache and let the driver switch to a server-side prepared statement before timing.
+            for(int i = 0; i < Math.min(iterations, 20); i++)
+                run(stmt, orgId, ids[i % ids.length]);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations; i++)
+                run(stmt, orgId, ids[i % ids.length]);
+            return (System.nanoTime() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1) / iterations;
+        }
+    }
+
+    private static void run(PreparedStatement stmt, int orgId, int id) throws SQLException {
+        stmt.setInt(1, orgId);
+        stmt.setInt(2, orgId);
+        stmt.setInt(3, orgId);
+        stmt.setInt(4, id);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while(rs.next())
+                rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.servantscode.ministry.loadtest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.servantscode.ministry.ServiceConfig;
+import org.servantscode.ministry.db.CatalogChangeListener;
+import org.servantscode.ministry.db.DBUpgrade;
+import org.servantscode.ministry.rest.AdmissionFilter;
+import org.servantscode.ministry.rest.MetricsSvc;
+import org.servantscode.ministry.rest.MinistryEnrollmentSvc;
+import org.servantscode.ministry.rest.MinistryRoleSvc;
+import org.servantscode.ministry.rest.MinistrySvc;
+import org.servantscode.ministry.rest.RequestMetricsFilter;
+import org.servantscode.ministry.rest.ServiceIdentificationFilter;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Boots the ministry resources in an in-process Grizzly container against an embedded Postgres, seeds it,
+ * drives a closed-loop workload and reports throughput and latency percentiles per endpoint. Results are
+ * written as JSON and compared against the stored baseline, if there is one.
+ *
+ * Run through ./gradlew loadTest; the settings below can be passed as -P properties of the same name.
+ */
+public class LoadTest {
+    private static final Logger LOG = LogManager.getLogger(LoadTest.class);
+
+    public static void main(String[] args) throws Exception {
+        int dbPort = ServiceConfig.getInt("LOADTEST_DB_PORT", 5432);
+        int httpPort = ServiceConfig.getInt("LOADTEST_HTTP_PORT", 9080);
+        int orgs = ServiceConfig.getInt("LOADTEST_ORGS", 20);
+        int ministries = ServiceConfig.getInt("LOADTEST_MINISTRIES", 200);
+        int roles = ServiceConfig.getInt("LOADTEST_ROLES", 5);
+        int people = ServiceConfig.getInt("LOADTEST_PEOPLE", 2000);
+        int enrollments = ServiceConfig.getInt("LOADTEST_ENROLLMENTS", 3);
+        int concurrency = ServiceConfig.getInt("LOADTEST_CONCURRENCY", 32);
+        int warmup = ServiceConfig.getInt("LOADTEST_WARMUP_SECONDS", 30);
+        int duration = ServiceConfig.getInt("LOADTEST_DURATION_SECONDS", 120);
+        double threshold = ServiceConfig.getLong("LOADTEST_REGRESSION_PERCENT", 20);
+        File resultsFile = new File(ServiceConfig.getString("LOADTEST_RESULTS", "build/loadtest/results.json"));
+        File baselineFile = new File(ServiceConfig.getString("LOADTEST_BASELINE", "src/loadtest/baseline.json"));
+        boolean updateBaseline = ServiceConfig.getBoolean("LOADTEST_UPDATE_BASELINE", false);
+        // Off by default: a closed loop always runs each organization past its budget, which would measure refusals.
+        boolean admissionControl = ServiceConfig.getBoolean("LOADTEST_ADMISSION_CONTROL", false);
+
+        boolean regressed = false;
+        // The service connects with the same settings it uses in production, so the database is started to match them.
+        try (LoadTestDatabase db = new LoadTestDatabase(dbPort, ServiceConfig.getString("LOADTEST_DB_NAME", "servantscode"),
+                                                        ServiceConfig.getString("DB_USER", "loadtest"),
+                                                        ServiceConfig.getString("DB_PASSWORD", "loadtest"))) {
+            db.createExternalTables();
+            new DBUpgrade().doUpgrade();
+            db.seed(orgs, ministries, roles, people, enrollments);
+
+            CatalogChangeListener listener = new CatalogChangeListener();
+            listener.contextInitialized(null);
+
+            ResourceConfig config = new ResourceConfig(MinistrySvc.class, MinistryRoleSvc.class, MinistryEnrollmentSvc.class, MetricsSvc.class,
+                                                       ServiceIdentificationFilter.class, RequestMetricsFilter.class,
+                                                       LoadTestContextFilter.class, JacksonFeature.class);
+            if(admissionControl)
+                config.register(AdmissionFilter.class);
+            URI base = URI.create(String.format("http://localhost:%d/rest/", httpPort));
+            HttpServer server = GrizzlyHttpServerFactory.createHttpServer(base, config);
+            try {
+                Workload workload = new Workload(base.toString().replaceAll("/$", ""), db.orgHosts(),
+                                                 db.idsByOrg("ministries"), db.idsByOrg("people"));
+                Map<String, EndpointResult> results = workload.run(concurrency, warmup, duration);
+
+                report(results);
+                Baseline.write(resultsFile, results);
+                LOG.info("Results written to " + resultsFile);
+
+                if(updateBaseline) {
+                    Baseline.write(baselineFile, results);
+                    LOG.info("Baseline updated: " + baselineFile);
+                } else if(baselineFile.exists()) {
+                    List<String> regressions = Baseline.regressions(Baseline.read(baselineFile), results, threshold);
+                    regressions.forEach(regression -> LOG.warn("Regression: " + regression));
+                    regressed = !regressions.isEmpty();
+                    if(!regressed)
+                        LOG.info(String.format("No regressions beyond %.0f%% of the baseline", threshold));
+                }
+            } finally {
+                server.shutdownNow();
+                listener.contextDestroyed(null);
+            }
+        }
+
+        // Non-daemon container and pool threads would otherwise keep the JVM alive.
+        System.exit(regressed? 2: 0);
+    }
+
+    // ----- Private -----
+    private static void report(Map<String, EndpointResult> results) {
+        StringBuilder table = new StringBuilder(String.format("%n%-32s %9s %7s %9s %9s %9s %9s%n",
+                "endpoint", "req/s", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        results.forEach((endpoint, r) -> table.append(String.format("%-32s %9.1f %7d %9.2f %9.2f %9.2f %9.2f%n",
+                endpoint, r.getThroughput(), r.getErrors(), r.getP50(), r.getP99(), r.getP999(), r.getMax())));
+        LOG.info(table.toString());
+    }
+}
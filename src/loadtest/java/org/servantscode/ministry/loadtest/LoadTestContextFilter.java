@@ -0,0 +1,38 @@
+package org.servantscode.ministry.loadtest;
+
+import org.servantscode.commons.security.OrganizationContext;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.SecurityContext;
+import java.security.Principal;
+
+/**
+ * Stands in for the token and organization filters of the deployed service: every request is treated as coming
+ * from a user holding every permission, within the organization whose host name is in the org header.
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class LoadTestContextFilter implements ContainerRequestFilter {
+    public static final String ORG_HEADER = "X-Load-Test-Org";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        OrganizationContext.enableOrganization(requestContext.getHeaderString(ORG_HEADER));
+
+        requestContext.setSecurityContext(new SecurityContext() {
+            @Override
+            public Principal getUserPrincipal() { return () -> "loadtest"; }
+
+            @Override
+            public boolean isUserInRole(String role) { return true; }
+
+            @Override
+            public boolean isSecure() { return false; }
+
+            @Override
+            public String getAuthenticationScheme() { return "loadtest"; }
+        });
+    }
+}
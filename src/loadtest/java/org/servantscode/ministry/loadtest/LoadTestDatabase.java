@@ -0,0 +1,116 @@
+package org.servantscode.ministry.loadtest;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A throwaway Postgres started from bundled binaries, on the host and port the service is configured to use,
+ * with stand-ins for the tables other services own and a seeded population of organizations.
+ */
+public class LoadTestDatabase implements AutoCloseable {
+    private static final Logger LOG = LogManager.getLogger(LoadTestDatabase.class);
+
+    private final EmbeddedPostgres postgres;
+    private final String url;
+    private final String user;
+    private final String password;
+
+    public LoadTestDatabase(int port, String database, String user, String password) throws IOException, SQLException {
+        LOG.info(String.format("Starting embedded Postgres on port %d", port));
+        this.postgres = EmbeddedPostgres.builder().setPort(port).start();
+        this.url = String.format("jdbc:postgresql://localhost:%d/%s", port, database);
+        this.user = user;
+        this.password = password;
+
+        try (Connection conn = postgres.getPostgresDatabase().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(String.format("CREATE ROLE %s LOGIN SUPERUSER PASSWORD '%s'", user, password.replace("'", "''")));
+            stmt.execute(String.format("CREATE DATABASE %s OWNER %s", database, user));
+        }
+    }
+
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /** Creates minimal versions of the organization and people tables the ministry schema references. */
+    public void createExternalTables() throws SQLException {
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE organizations (id SERIAL PRIMARY KEY, name TEXT, host_name TEXT)");
+            stmt.execute("CREATE TABLE people (id SERIAL PRIMARY KEY, name TEXT, email TEXT, " +
+                         "org_id INTEGER REFERENCES organizations(id) ON DELETE CASCADE)");
+            stmt.execute("CREATE INDEX people_org_idx ON people (org_id)");
+        }
+    }
+
+    /** Seeds each organization with the same shape of data. Runs after the ministry schema has been created. */
+    public void seed(int orgs, int ministriesPerOrg, int rolesPerMinistry, int peoplePerOrg, int enrollmentsPerPerson) throws SQLException {
+        LOG.info(String.format("Seeding %d orgs: %d ministries, %d roles each, %d people, %d enrollments each",
+                orgs, ministriesPerOrg, rolesPerMinistry, peoplePerOrg, enrollmentsPerPerson));
+
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(String.format("INSERT INTO organizations(name, host_name) " +
+                                       "SELECT 'Parish ' || o, 'org' || o || '.loadtest.local' FROM generate_series(1, %d) o", orgs));
+            stmt.execute(String.format("INSERT INTO people(name, email, org_id) " +
+                                       "SELECT 'Person ' || o.id || '-' || p, 'person' || p || '@org' || o.id || '.example.org', o.id " +
+                                       "FROM organizations o, generate_series(1, %d) p", peoplePerOrg));
+            stmt.execute(String.format("INSERT INTO ministries(name, description, org_id) " +
+                                       "SELECT (ARRAY['Youth','Choir','Lectors','Ushers','Hospitality','Bible Study','Outreach','Finance'])[1 + m %% 8] || ' ' || m, " +
+                                       "'Seeded ministry ' || m, o.id FROM organizations o, generate_series(1, %d) m", ministriesPerOrg));
+            stmt.execute(String.format("INSERT INTO ministry_roles(ministry_id, name, contact, leader, org_id) " +
+                                       "SELECT m.id, CASE WHEN r = 1 THEN 'Leader' ELSE 'Member ' || r END, r <= 2, r = 1, m.org_id " +
+                                       "FROM ministries m, generate_series(1, %d) r", rolesPerMinistry));
+            // Each person joins distinct ministries of their organization, picked by offset from their id.
+            stmt.execute(String.format("INSERT INTO ministry_enrollments(person_id, ministry_id, role_id) " +
+                                       "SELECT p.id, m.id, (SELECT min(r.id) FROM ministry_roles r WHERE r.ministry_id=m.id) " +
+                                       "FROM people p, generate_series(0, %d - 1) k, " +
+                                       "LATERAL (SELECT id FROM ministries WHERE org_id=p.org_id ORDER BY id OFFSET (p.id + k * 7) %% %d LIMIT 1) m " +
+                                       "ON CONFLICT DO NOTHING", Math.min(enrollmentsPerPerson, ministriesPerOrg), ministriesPerOrg));
+            stmt.execute("ANALYZE");
+        }
+    }
+
+    /** Ids of the rows of a table with an org_id column, grouped by organization. */
+    public Map<Integer, int[]> idsByOrg(String table) throws SQLException {
+        Map<Integer, int[]> ids = new TreeMap<>();
+        try (Connection conn = connect();
+             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT org_id, array_agg(id ORDER BY id) FROM %s GROUP BY org_id", table));
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Integer[] values = (Integer[]) rs.getArray(2).getArray();
+                ids.put(rs.getInt(1), Arrays.stream(values).mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return ids;
+    }
+
+    public Map<Integer, String> orgHosts() throws SQLException {
+        Map<Integer, String> hosts = new TreeMap<>();
+        try (Connection conn = connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT id, host_name FROM organizations");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next())
+                hosts.put(rs.getInt(1), rs.getString(2));
+        }
+        return hosts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        postgres.close();
+    }
+}
@@ -0,0 +1,196 @@
+package org.servantscode.ministry.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load: each worker sends its next request as soon as the previous one completes, choosing the
+ * endpoint by weight and the organization and target rows at random. Latencies are only recorded after warmup.
+ */
+public class Workload {
+    private static final Logger LOG = LogManager.getLogger(Workload.class);
+
+    private static final String[] SEARCH_TERMS = {"youth", "choir", "lect", "ush", "bible", "outreach", "fin", "hosp"};
+
+    private final String baseUrl;
+    private final Map<Integer, String> orgHosts;
+    private final Integer[] orgs;
+
+    private final List<Operation> operations = new ArrayList<>();
+    private int totalWeight = 0;
+
+    private volatile boolean recording;
+    private volatile boolean running;
+
+    public Workload(String baseUrl, Map<Integer, String> orgHosts, Map<Integer, int[]> ministryIds, Map<Integer, int[]> personIds) {
+        this.baseUrl = baseUrl;
+        this.orgHosts = orgHosts;
+        this.orgs = ministryIds.keySet().toArray(new Integer[0]);
+
+        operation("GET /ministry", 25, (org, random) -> get("/ministry?count=20&start=" + random.nextInt(5) * 20));
+        operation("GET /ministry?search", 10, (org, random) -> get("/ministry?count=20&search=" + pick(SEARCH_TERMS, random)));
+        operation("GET /ministry/autocomplete", 15, (org, random) -> get("/ministry/autocomplete?q=" + pick(SEARCH_TERMS, random).substring(0, 2)));
+        operation("GET /ministry/{id}", 15, (org, random) -> get("/ministry/" + pick(ministryIds.get(org), random)));
+        operation("GET /ministry/{id}/role", 10, (org, random) -> get("/ministry/" + pick(ministryIds.get(org), random) + "/role"));
+        operation("GET /enrollment/ministry/{id}", 10, (org, random) -> get("/enrollment/ministry/" + pick(ministryIds.get(org), random)));
+        operation("GET /enrollment/person/{id}", 10, (org, random) -> get("/enrollment/person/" + pick(personIds.get(org), random)));
+        operation("POST /enrollment/person/batch", 5, (org, random) -> {
+            StringBuilder ids = new StringBuilder("[");
+            for(int i = 0; i < 25; i++)
+                ids.append(i > 0? ",": "").append(pick(personIds.get(org), random));
+            return post("/enrollment/person/batch", ids.append("]").toString());
+        });
+    }
+
+    /** Runs the workers for warmup plus measurement and returns per-endpoint results for the measured period. */
+    public Map<String, EndpointResult> run(int concurrency, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        running = true;
+        List<Thread> workers = new ArrayList<>();
+        for(int i = 0; i < concurrency; i++) {
+            Thread worker = new Thread(this::work, "loadtest-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        LOG.info(String.format("Warming up for %ds with %d workers", warmupSeconds, concurrency));
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        recording = true;
+        LOG.info(String.format("Measuring for %ds", durationSeconds));
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        recording = false;
+        running = false;
+        for(Thread worker: workers)
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+
+        Map<String, EndpointResult> results = new LinkedHashMap<>();
+        for(Operation operation: operations)
+            results.put(operation.name, new EndpointResult(operation.latency, operation.errors.sum(), durationSeconds));
+        return results;
+    }
+
+    // ----- Private -----
+    private void operation(String name, int weight, RequestFactory factory) {
+        operations.add(new Operation(name, weight, factory));
+        totalWeight += weight;
+    }
+
+    private void work() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while(running) {
+            Operation operation = choose(random.nextInt(totalWeight));
+            int org = orgs[random.nextInt(orgs.length)];
+            Request request = operation.factory.create(org, random);
+
+            long start = System.nanoTime();
+            boolean ok = send(request, orgHosts.get(org));
+            long elapsed = System.nanoTime() - start;
+
+            if(recording) {
+                operation.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsed));
+                if(!ok)
+                    operation.errors.increment();
+            }
+        }
+    }
+
+    private Operation choose(int roll) {
+        for(Operation operation: operations) {
+            roll -= operation.weight;
+            if(roll < 0)
+                return operation;
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    private boolean send(Request request, String orgHost) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + request.path).openConnection();
+            conn.setRequestMethod(request.method);
+            conn.setRequestProperty(LoadTestContextFilter.ORG_HEADER, orgHost);
+            conn.setRequestProperty("Accept", "application/json");
+            if(request.body != null) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(request.body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            int status = conn.getResponseCode();
+            // Drain the body so the connection can be reused by the keep-alive pool.
+            try (InputStream in = status < 400? conn.getInputStream(): conn.getErrorStream()) {
+                if(in != null) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0) {}
+                }
+            }
+            return status < 400;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Request get(String path) {
+        return new Request("GET", path, null);
+    }
+
+    private static Request post(String path, String body) {
+        return new Request("POST", path, body);
+    }
+
+    private static String pick(String[] values, ThreadLocalRandom random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int pick(int[] values, ThreadLocalRandom random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private interface RequestFactory {
+        Request create(int org, ThreadLocalRandom random);
+    }
+
+    private static class Request {
+        private final String method;
+        private final String path;
+        private final String body;
+
+        private Request(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+    private static class Operation {
+        private final String name;
+        private final int weight;
+        private final RequestFactory factory;
+        // Microseconds at three significant digits; the range grows as needed.
+        private final Histogram latency = new ConcurrentHistogram(3);
+        private final LongAdder errors = new LongAdder();
+
+        private Operation(String name, int weight, RequestFactory factory) {
+            this.name = name;
+            this.weight = weight;
+            this.factory = factory;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.servantscode.ministry;
+
+public class EnrollmentResult {
+    public enum Status {CREATED, ALREADY_ENROLLED, NOT_FOUND, INVALID};
+
+    private int index;
+    private Status status;
+    private MinistryEnrollment enrollment;
+
+    public EnrollmentResult() {}
+
+    public EnrollmentResult(Status status, MinistryEnrollment enrollment) {
+        this.status = status;
+        this.enrollment = enrollment;
+    }
+
+    // ----- Accessors -----
+    public int getIndex() { return index; }
+    public void setIndex(int index) { this.index = index; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public MinistryEnrollment getEnrollment() { return enrollment; }
+    public void setEnrollment(MinistryEnrollment enrollment) { this.enrollment = enrollment; }
+}
@@ -0,0 +1,43 @@
+package org.servantscode.ministry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed, roughly logarithmic buckets from 0.5ms to 10s, written in the
+ * Prometheus histogram format. Recording is a short bucket scan and two adds, cheap enough for every request.
+ */
+public class LatencyHistogram {
+    private static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final String[] BOUND_LABELS = {"0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for(int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        double seconds = nanos / 1e9;
+        int i = 0;
+        while(i < BOUNDS.length && seconds > BOUNDS[i])
+            i++;
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /** Appends the cumulative bucket, sum and count samples. Labels are rendered without braces, e.g. {@code route="x"}. */
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty()? "": labels + ",";
+        long cumulative = 0;
+        for(int i = 0; i < BOUNDS.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(String.format("%s_bucket{%sle=\"%s\"} %d\n", name, prefix, BOUND_LABELS[i], cumulative));
+        }
+        cumulative += buckets[BOUNDS.length].sum();
+        out.append(String.format("%s_bucket{%sle=\"+Inf\"} %d\n", name, prefix, cumulative));
+        out.append(String.format("%s_sum{%s} %s\n", name, labels, sumNanos.sum() / 1e9));
+        out.append(String.format("%s_count{%s} %d\n", name, labels, cumulative));
+    }
+}
@@ -0,0 +1,115 @@
+package org.servantscode.ministry;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide request and database timings, exposed in the Prometheus text format. Series are keyed by their
+ * rendered label set; routes and DB classes are a fixed, small set so the number of series stays bounded.
+ */
+public final class Metrics {
+    private static final Map<String, LatencyHistogram> REQUEST_LATENCY = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> RESPONSES = new ConcurrentHashMap<>();
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    private static final Map<String, LatencyHistogram> CONNECTION_WAIT = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> CONNECTION_HOLD = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> QUERY_TIME = new ConcurrentHashMap<>();
+
+    // Values owned by other components, read at scrape time.
+    private static final Map<String, SampledMetric> SAMPLED = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public static void requestStarted() {
+        IN_FLIGHT.incrementAndGet();
+    }
+
+    public static void requestFinished(String method, String route, int status, long nanos) {
+        IN_FLIGHT.decrementAndGet();
+        String labels = labels("method", method, "route", route);
+        REQUEST_LATENCY.computeIfAbsent(labels, k -> new LatencyHistogram()).record(nanos);
+        RESPONSES.computeIfAbsent(labels + "," + labels("status", Integer.toString(status)), k -> new LongAdder()).increment();
+    }
+
+    public static void connectionAcquired(String source, long waitNanos) {
+        CONNECTION_WAIT.computeIfAbsent(labels("source", source), k -> new LatencyHistogram()).record(waitNanos);
+    }
+
+    public static void connectionReleased(String source, long heldNanos) {
+        CONNECTION_HOLD.computeIfAbsent(labels("source", source), k -> new LatencyHistogram()).record(heldNanos);
+    }
+
+    public static void queryExecuted(String source, long nanos) {
+        QUERY_TIME.computeIfAbsent(labels("source", source), k -> new LatencyHistogram()).record(nanos);
+    }
+
+    public static void gauge(String name, String help, String labelName, String labelValue, LongSupplier value) {
+        sampled(name, help, "gauge", labelName, labelValue, value);
+    }
+
+    public static void counter(String name, String help, String labelName, String labelValue, LongSupplier value) {
+        sampled(name, help, "counter", labelName, labelValue, value);
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        writeHistograms(out, "http_server_request_duration_seconds", "Time from request receipt until the response status and headers are ready.", REQUEST_LATENCY);
+
+        out.append("# HELP http_server_responses_total Responses by route and status code.\n");
+        out.append("# TYPE http_server_responses_total counter\n");
+        new TreeMap<>(RESPONSES).forEach((labels, count) -> out.append(String.format("http_server_responses_total{%s} %d\n", labels, count.sum())));
+
+        out.append("# HELP http_server_requests_in_flight Requests currently being processed.\n");
+        out.append("# TYPE http_server_requests_in_flight gauge\n");
+        out.append(String.format("http_server_requests_in_flight %d\n", IN_FLIGHT.get()));
+
+        writeHistograms(out, "db_connection_wait_seconds", "Time spent waiting for a pooled connection.", CONNECTION_WAIT);
+        writeHistograms(out, "db_connection_hold_seconds", "Time a connection was held before being returned to the pool.", CONNECTION_HOLD);
+        writeHistograms(out, "db_query_seconds", "Statement execution time, up to the first batch of rows.", QUERY_TIME);
+
+        new TreeMap<>(SAMPLED).forEach((name, metric) -> {
+            out.append(String.format("# HELP %s %s\n", name, metric.help));
+            out.append(String.format("# TYPE %s %s\n", name, metric.type));
+            new TreeMap<>(metric.series).forEach((labels, value) -> out.append(String.format("%s{%s} %d\n", name, labels, value.getAsLong())));
+        });
+        return out.toString();
+    }
+
+    // ----- Private -----
+    private static void writeHistograms(StringBuilder out, String name, String help, Map<String, LatencyHistogram> series) {
+        out.append(String.format("# HELP %s %s\n", name, help));
+        out.append(String.format("# TYPE %s histogram\n", name));
+        new TreeMap<>(series).forEach((labels, histogram) -> histogram.write(out, name, labels));
+    }
+
+    private static void sampled(String name, String help, String type, String labelName, String labelValue, LongSupplier value) {
+        SAMPLED.computeIfAbsent(name, k -> new SampledMetric(help, type)).series.put(labels(labelName, labelValue), value);
+    }
+
+    private static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for(int i = 0; i < namesAndValues.length; i += 2) {
+            if(i > 0)
+                labels.append(',');
+            String value = namesAndValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            labels.append(namesAndValues[i]).append("=\"").append(value).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static class SampledMetric {
+        private final String help;
+        private final String type;
+        private final Map<String, LongSupplier> series = new ConcurrentHashMap<>();
+
+        private SampledMetric(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
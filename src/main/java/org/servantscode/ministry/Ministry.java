@@ -1,9 +1,14 @@
 package org.servantscode.ministry;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class Ministry {
     private int id;
     private String name;
     private String description;
+    private long version;
+    private Integer memberCount;
 
     public Ministry() {}
 
@@ -24,4 +29,13 @@ public class Ministry {
 
     public String getDescription() { return description; }
     public void setDescription(String description) { this.description = description; }
+
+    @JsonIgnore
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    // Only filled in on listings; omitted where it is not loaded.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getMemberCount() { return memberCount; }
+    public void setMemberCount(Integer memberCount) { this.memberCount = memberCount; }
 }
@@ -0,0 +1,38 @@
+package org.servantscode.ministry;
+
+public class MinistryChange {
+    public enum Entity {MINISTRY, ROLE, ENROLLMENT};
+    public enum Operation {INSERT, UPDATE, DELETE};
+
+    private long position;
+    private Entity entity;
+    private Operation operation;
+    private Integer ministryId;
+    private Integer roleId;
+    private Integer personId;
+    private long changedTime;
+
+    public MinistryChange() {}
+
+    // ----- Accessors -----
+    public long getPosition() { return position; }
+    public void setPosition(long position) { this.position = position; }
+
+    public Entity getEntity() { return entity; }
+    public void setEntity(Entity entity) { this.entity = entity; }
+
+    public Operation getOperation() { return operation; }
+    public void setOperation(Operation operation) { this.operation = operation; }
+
+    public Integer getMinistryId() { return ministryId; }
+    public void setMinistryId(Integer ministryId) { this.ministryId = ministryId; }
+
+    public Integer getRoleId() { return roleId; }
+    public void setRoleId(Integer roleId) { this.roleId = roleId; }
+
+    public Integer getPersonId() { return personId; }
+    public void setPersonId(Integer personId) { this.personId = personId; }
+
+    public long getChangedTime() { return changedTime; }
+    public void setChangedTime(long changedTime) { this.changedTime = changedTime; }
+}
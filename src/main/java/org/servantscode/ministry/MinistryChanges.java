@@ -0,0 +1,28 @@
+package org.servantscode.ministry;
+
+import java.util.List;
+
+/** A page of the change feed. Pass next as since to read on; more is set when the page was cut at its limit. */
+public class MinistryChanges {
+    private List<MinistryChange> changes;
+    private long next;
+    private boolean more;
+
+    public MinistryChanges() {}
+
+    public MinistryChanges(List<MinistryChange> changes, long next, boolean more) {
+        this.changes = changes;
+        this.next = next;
+        this.more = more;
+    }
+
+    // ----- Accessors -----
+    public List<MinistryChange> getChanges() { return changes; }
+    public void setChanges(List<MinistryChange> changes) { this.changes = changes; }
+
+    public long getNext() { return next; }
+    public void setNext(long next) { this.next = next; }
+
+    public boolean isMore() { return more; }
+    public void setMore(boolean more) { this.more = more; }
+}
@@ -0,0 +1,56 @@
+package org.servantscode.ministry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MinistryStats {
+    private int ministryId;
+    private String name;
+    private int memberCount;
+    private List<RoleStats> roles = new ArrayList<>();
+
+    public MinistryStats() {}
+
+    public MinistryStats(int ministryId, String name, int memberCount) {
+        this.ministryId = ministryId;
+        this.name = name;
+        this.memberCount = memberCount;
+    }
+
+    public static class RoleStats {
+        private int roleId;
+        private String name;
+        private int memberCount;
+
+        public RoleStats() {}
+
+        public RoleStats(int roleId, String name, int memberCount) {
+            this.roleId = roleId;
+            this.name = name;
+            this.memberCount = memberCount;
+        }
+
+        // ----- Accessors -----
+        public int getRoleId() { return roleId; }
+        public void setRoleId(int roleId) { this.roleId = roleId; }
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public int getMemberCount() { return memberCount; }
+        public void setMemberCount(int memberCount) { this.memberCount = memberCount; }
+    }
+
+    // ----- Accessors -----
+    public int getMinistryId() { return ministryId; }
+    public void setMinistryId(int ministryId) { this.ministryId = ministryId; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public int getMemberCount() { return memberCount; }
+    public void setMemberCount(int memberCount) { this.memberCount = memberCount; }
+
+    public List<RoleStats> getRoles() { return roles; }
+    public void setRoles(List<RoleStats> roles) { this.roles = roles; }
+}
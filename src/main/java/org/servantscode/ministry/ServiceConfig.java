@@ -0,0 +1,42 @@
+package org.servantscode.ministry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static org.servantscode.commons.StringUtils.isEmpty;
+
+/** Tuning knobs read from the environment (as set in kube.yml), falling back to system properties and then defaults. */
+public final class ServiceConfig {
+    private static final Logger LOG = LogManager.getLogger(ServiceConfig.class);
+
+    private ServiceConfig() {}
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if(isEmpty(value))
+            value = System.getProperty(name);
+        return isEmpty(value)? defaultValue: value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if(value == null)
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            LOG.warn(String.format("Ignoring invalid value for %s: %s", name, value));
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null? defaultValue: Boolean.parseBoolean(value);
+    }
+}
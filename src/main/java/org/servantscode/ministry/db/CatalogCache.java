@@ -0,0 +1,164 @@
+package org.servantscode.ministry.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, org-partitioned read-through cache. Entries expire after a fixed TTL and the least recently used
+ * entry is evicted once the cache is full. Missing values are never cached.
+ */
+public class CatalogCache<K, V> {
+    private final String name;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Key<K>, Entry<V>> entries;
+    private long generation = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public CatalogCache(String name, int maxEntries, long ttlMillis) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Key<K>, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key<K>, Entry<V>> eldest) {
+                if(size() <= CatalogCache.this.maxEntries)
+                    return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public V get(int orgId, K key, Supplier<V> loader) {
+        Key<K> cacheKey = new Key<>(orgId, key);
+        long loadGeneration;
+        synchronized (this) {
+            Entry<V> entry = entries.get(cacheKey);
+            if(entry != null && entry.expires > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.value;
+            }
+            if(entry != null)
+                entries.remove(cacheKey);
+            loadGeneration = generation;
+        }
+
+        misses.increment();
+        V value = loader.get();
+        if(value == null || maxEntries <= 0)
+            return value;
+
+        synchronized (this) {
+            // An invalidation while loading may mean the value is already stale; serve it but don't keep it.
+            if(loadGeneration == generation)
+                entries.put(cacheKey, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+        return value;
+    }
+
+    public synchronized void invalidate(int orgId, K key) {
+        generation++;
+        if(entries.remove(new Key<>(orgId, key)) != null)
+            invalidations.increment();
+    }
+
+    public synchronized void invalidate(int orgId, Predicate<K> matches) {
+        generation++;
+        Iterator<Key<K>> keys = entries.keySet().iterator();
+        while(keys.hasNext()) {
+            Key<K> key = keys.next();
+            if(key.orgId == orgId && matches.test(key.key)) {
+                keys.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidateOrg(int orgId) {
+        invalidate(orgId, key -> true);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(name, entries.size(), maxEntries, hits.sum(), misses.sum(), evictions.sum(), invalidations.sum());
+    }
+
+    // ----- Private -----
+    private static class Key<K> {
+        private final int orgId;
+        private final K key;
+
+        private Key(int orgId, K key) {
+            this.orgId = orgId;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key<?> other = (Key<?>) o;
+            return orgId == other.orgId && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * orgId + Objects.hashCode(key);
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expires;
+
+        private Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    public static class CacheStats {
+        private final String name;
+        private final int size;
+        private final int maxSize;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+
+        public CacheStats(String name, int size, int maxSize, long hits, long misses, long evictions, long invalidations) {
+            this.name = name;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        // ----- Accessors -----
+        public String getName() { return name; }
+        public int getSize() { return size; }
+        public int getMaxSize() { return maxSize; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getInvalidations() { return invalidations; }
+    }
+}
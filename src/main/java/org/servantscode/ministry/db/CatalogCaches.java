@@ -0,0 +1,128 @@
+package org.servantscode.ministry.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.Identity;
+import org.servantscode.ministry.Ministry;
+import org.servantscode.ministry.MinistryEnrollment;
+import org.servantscode.ministry.MinistryRole;
+import org.servantscode.ministry.ServiceConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+/**
+ * The shared ministry and role caches. Writes on this replica invalidate entries directly; writes made
+ * elsewhere arrive as ministry_catalog notifications through {@link CatalogChangeListener}.
+ */
+public final class CatalogCaches {
+    private static final Logger LOG = LogManager.getLogger(CatalogCaches.class);
+
+    public static final String CHANNEL = "ministry_catalog";
+
+    private static final int MAX_ENTRIES = ServiceConfig.getInt("CATALOG_CACHE_SIZE", 2000);
+    private static final long TTL_MILLIS = ServiceConfig.getLong("CATALOG_CACHE_TTL_SECONDS", 300) * 1000;
+
+    static final CatalogCache<Integer, Ministry> MINISTRIES = new CatalogCache<>("ministries", MAX_ENTRIES, TTL_MILLIS);
+    static final CatalogCache<Integer, MinistryRole> ROLES = new CatalogCache<>("roles", MAX_ENTRIES, TTL_MILLIS);
+    static final CatalogCache<List<Object>, ResultPage<MinistryRole>> ROLE_LISTS = new CatalogCache<>("role_lists", MAX_ENTRIES, TTL_MILLIS);
+    // Per ministry, dropped with its role lists, so a listing's version is only read from the database after a change.
+    static final CatalogCache<Integer, String> ROLE_VERSIONS = new CatalogCache<>("role_versions", MAX_ENTRIES, TTL_MILLIS);
+    // One entry per organization; rebuilt on the next lookup after any ministry in it changes.
+    static final CatalogCache<Integer, MinistryNameIndex> NAME_INDEXES = new CatalogCache<>("ministry_names", MAX_ENTRIES, TTL_MILLIS);
+
+    // Reads shared between identical concurrent requests. Dropped on the same writes as the caches, so a read
+    // starting after a write never joins one that started before it.
+    static final SingleFlight<Integer, Ministry> MINISTRY_READS = new SingleFlight<>("ministry", SingleFlight.WINDOW_MILLIS);
+    static final SingleFlight<Integer, List<Identity>> CONTACT_READS = new SingleFlight<>("ministry_contacts", SingleFlight.WINDOW_MILLIS);
+    static final SingleFlight<Integer, String> MEMBERSHIP_VERSION_READS = new SingleFlight<>("membership_version", SingleFlight.WINDOW_MILLIS);
+    // Keyed by ministry and membership version, so a shared roster always matches the version it is served under.
+    static final SingleFlight<List<Object>, List<MinistryEnrollment>> MEMBERSHIP_READS = new SingleFlight<>("membership", SingleFlight.WINDOW_MILLIS);
+
+    private CatalogCaches() {}
+
+    public static List<CatalogCache.CacheStats> getStats() {
+        return asList(MINISTRIES.getStats(), ROLES.getStats(), ROLE_LISTS.getStats(), ROLE_VERSIONS.getStats(), NAME_INDEXES.getStats());
+    }
+
+    static void ministryChanged(int orgId, int ministryId) {
+        MINISTRIES.invalidate(orgId, ministryId);
+        NAME_INDEXES.invalidateOrg(orgId);
+        MINISTRY_READS.invalidate(orgId, ministryId);
+        MEMBERSHIP_VERSION_READS.invalidate(orgId, ministryId);
+    }
+
+    static void ministryDeleted(int orgId, int ministryId) {
+        ministryChanged(orgId, ministryId);
+        // Roles and enrollments go with the ministry by cascade.
+        ROLES.invalidateOrg(orgId);
+        ROLE_LISTS.invalidate(orgId, key -> key.get(0).equals(ministryId));
+        ROLE_VERSIONS.invalidate(orgId, ministryId);
+        CONTACT_READS.invalidate(orgId, ministryId);
+    }
+
+    static void roleChanged(int orgId, int roleId) {
+        ROLES.invalidate(orgId, roleId);
+        ROLE_LISTS.invalidateOrg(orgId);
+        ROLE_VERSIONS.invalidateOrg(orgId);
+        CONTACT_READS.invalidateOrg(orgId);
+        MEMBERSHIP_VERSION_READS.invalidateOrg(orgId);
+    }
+
+    static void roleListChanged(int orgId, int ministryId) {
+        ROLE_LISTS.invalidate(orgId, key -> key.get(0).equals(ministryId));
+        ROLE_VERSIONS.invalidate(orgId, ministryId);
+        MEMBERSHIP_VERSION_READS.invalidate(orgId, ministryId);
+    }
+
+    static void enrollmentsChanged(int orgId) {
+        CONTACT_READS.invalidateOrg(orgId);
+        MEMBERSHIP_VERSION_READS.invalidateOrg(orgId);
+    }
+
+    static List<Object> roleListKey(int ministryId, Object... params) {
+        List<Object> key = new ArrayList<>(params.length + 1);
+        key.add(ministryId);
+        key.addAll(asList(params));
+        return key;
+    }
+
+    /** Applies a notification payload of the form "ministry:OP:orgId:id" or "role:OP:orgId:id:ministryId". */
+    static void applyNotification(String payload) {
+        String[] parts = payload.split(":");
+        try {
+            String op = parts[1];
+            int orgId = Integer.parseInt(parts[2]);
+            int id = Integer.parseInt(parts[3]);
+            if(parts[0].equals("ministry")) {
+                if(op.equals("DELETE"))
+                    ministryDeleted(orgId, id);
+                else
+                    ministryChanged(orgId, id);
+            } else if(parts[0].equals("role")) {
+                if(op.equals("INSERT"))
+                    roleListChanged(orgId, Integer.parseInt(parts[4]));
+                else
+                    roleChanged(orgId, id);
+            } else {
+                LOG.warn("Ignoring unknown catalog notification: " + payload);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            LOG.warn("Ignoring malformed catalog notification: " + payload);
+        }
+    }
+
+    static void clearAll() {
+        MINISTRIES.clear();
+        ROLES.clear();
+        ROLE_LISTS.clear();
+        ROLE_VERSIONS.clear();
+        NAME_INDEXES.clear();
+        MINISTRY_READS.clear();
+        CONTACT_READS.clear();
+        MEMBERSHIP_VERSION_READS.clear();
+        MEMBERSHIP_READS.clear();
+    }
+}
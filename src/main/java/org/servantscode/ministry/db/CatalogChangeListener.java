@@ -0,0 +1,104 @@
+package org.servantscode.ministry.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.servantscode.ministry.ServiceConfig;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Holds a connection LISTENing on the catalog channel so that writes from other replicas evict entries
+ * from this replica's caches, and on the change feed channel to wake long-polling feed readers. If the
+ * connection drops, notifications may have been missed, so the caches are cleared and all readers woken
+ * before listening again.
+ *
+ * The connection is opened directly rather than taken from the shared pool, which it would otherwise hold for
+ * the life of the process. It goes to the same database as the pool, or to DB_LISTEN_URL if that is set.
+ */
+public class CatalogChangeListener implements ServletContextListener {
+    private static final Logger LOG = LogManager.getLogger(CatalogChangeListener.class);
+
+    private static final int POLL_MILLIS = 10000;
+    private static final int RETRY_MILLIS = 5000;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        running = true;
+        thread = new Thread(this::listen, "catalog-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        running = false;
+        if(thread != null)
+            thread.interrupt();
+    }
+
+    // ----- Private -----
+    private void listen() {
+        while(running) {
+            try (Connection conn = openDedicated();
+                 Statement stmt = conn.createStatement()) {
+
+                stmt.execute("LISTEN " + CatalogCaches.CHANNEL);
+                stmt.execute("LISTEN " + ChangeFeed.CHANNEL);
+                CatalogCaches.clearAll();
+                ChangeFeed.changedAll();
+                LOG.info("Listening for catalog changes.");
+
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                while(running) {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_MILLIS);
+                    if(notifications == null)
+                        continue;
+
+                    for(PGNotification notification: notifications) {
+                        if(notification.getName().equals(ChangeFeed.CHANNEL))
+                            ChangeFeed.changed(notification.getParameter());
+                        else
+                            CatalogCaches.applyNotification(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if(!running)
+                    return;
+                LOG.warn("Catalog change listener lost its connection; retrying.", e);
+                CatalogCaches.clearAll();
+                ChangeFeed.changedAll();
+                pause();
+            } catch (Throwable t) {
+                LOG.error("Catalog change listener failed; retrying.", t);
+                CatalogCaches.clearAll();
+                ChangeFeed.changedAll();
+                pause();
+            }
+        }
+    }
+
+    private static Connection openDedicated() throws SQLException {
+        String url = ServiceConfig.getString("DB_LISTEN_URL", String.format("jdbc:postgresql://%s:%d/%s",
+                ServiceConfig.getString("DB_HOST", "localhost"), ServiceConfig.getInt("DB_PORT", 5432),
+                ServiceConfig.getString("DB_NAME", "servantscode")));
+        return DriverManager.getConnection(url, ServiceConfig.getString("DB_USER", null), ServiceConfig.getString("DB_PASSWORD", null));
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.servantscode.ministry.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.ministry.ServiceConfig;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wakes long-polling change feed readers. The change log triggers notify on the ministry_changes channel with
+ * the organization id; {@link CatalogChangeListener} hands those on here. A waiter runs once, on notification
+ * or at its deadline, whichever comes first, and is expected to read the feed again. Waiters run on their own
+ * small pool, never on the listener or deadline threads, so a waiter reading the feed inline (as it does when
+ * bulkheads are off) cannot hold up cache invalidation or other deadlines.
+ */
+public final class ChangeFeed {
+    private static final Logger LOG = LogManager.getLogger(ChangeFeed.class);
+
+    public static final String CHANNEL = "ministry_changes";
+
+    private static final Map<Integer, Set<Waiter>> WAITERS = new ConcurrentHashMap<>();
+    private static final Map<Integer, AtomicLong> GENERATIONS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "change-feed-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService WAKEUPS = Executors.newFixedThreadPool(ServiceConfig.getInt("CHANGE_FEED_THREADS", 4), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "change-feed-wakeup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private ChangeFeed() {}
+
+    /** Read before querying the feed, and passed to {@link #await}, so a change landing in between is not slept through. */
+    public static long generation(int orgId) {
+        return GENERATIONS.computeIfAbsent(orgId, k -> new AtomicLong()).get();
+    }
+
+    /** Runs the action when the organization next changes, or after the wait, whichever comes first. */
+    public static void await(int orgId, long generation, long waitMillis, Runnable action) {
+        Waiter waiter = new Waiter(orgId, action);
+        // Added and removed under the map's lock for the key, so a set is never dropped while a waiter joins it.
+        WAITERS.compute(orgId, (k, waiters) -> {
+            Set<Waiter> joined = waiters == null? ConcurrentHashMap.newKeySet(): waiters;
+            joined.add(waiter);
+            return joined;
+        });
+        waiter.deadline = DEADLINES.schedule(waiter::fire, waitMillis, TimeUnit.MILLISECONDS);
+
+        if(generation(orgId) != generation)
+            waiter.fire();
+    }
+
+    static void changed(String payload) {
+        try {
+            int orgId = Integer.parseInt(payload);
+            GENERATIONS.computeIfAbsent(orgId, k -> new AtomicLong()).incrementAndGet();
+            Set<Waiter> waiters = WAITERS.get(orgId);
+            if(waiters != null)
+                waiters.forEach(Waiter::fire);
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring malformed change notification: " + payload);
+        }
+    }
+
+    /** Notifications may have been missed, so every waiter reads again. */
+    static void changedAll() {
+        GENERATIONS.values().forEach(AtomicLong::incrementAndGet);
+        WAITERS.values().forEach(waiters -> waiters.forEach(Waiter::fire));
+    }
+
+    // ----- Private -----
+    private static class Waiter {
+        private final int orgId;
+        private final Runnable action;
+        private final AtomicBoolean fired = new AtomicBoolean();
+        private volatile ScheduledFuture<?> deadline;
+
+        private Waiter(int orgId, Runnable action) {
+            this.orgId = orgId;
+            this.action = action;
+        }
+
+        private void fire() {
+            if(!fired.compareAndSet(false, true))
+                return;
+
+            WAITERS.computeIfPresent(orgId, (k, waiters) -> {
+                waiters.remove(this);
+                return waiters.isEmpty()? null: waiters;
+            });
+            if(deadline != null)
+                deadline.cancel(false);
+
+            WAKEUPS.execute(() -> {
+                try {
+                    action.run();
+                } catch (Throwable t) {
+                    LOG.error("Change feed waiter failed:", t);
+                }
+            });
+        }
+    }
+}
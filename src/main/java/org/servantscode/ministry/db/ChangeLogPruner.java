@@ -0,0 +1,60 @@
+package org.servantscode.ministry.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.db.DBAccess;
+import org.servantscode.ministry.ServiceConfig;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes change log rows older than the retention period once an hour, whether or not anyone reads the feed.
+ * Positions are numbered per organization, so each organization's newest row is always kept for its numbering
+ * to carry on from; rows without an organization are never read and may all go. Deleting is idempotent, so
+ * replicas pruning at the same time do no harm.
+ */
+public class ChangeLogPruner extends DBAccess implements ServletContextListener {
+    private static final Logger LOG = LogManager.getLogger(ChangeLogPruner.class);
+
+    private static final int RETENTION_DAYS = ServiceConfig.getInt("CHANGE_RETENTION_DAYS", 30);
+    private static final long INTERVAL_MINUTES = 60;
+
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "change-log-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::prune, 1, INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if(scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    // ----- Private -----
+    private void prune() {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM ministry_changes c WHERE c.changed_time < now() - ? * interval '1 day' " +
+                                                            "AND (c.org_id IS NULL OR c.position < (SELECT max(n.position) FROM ministry_changes n WHERE n.org_id = c.org_id))")) {
+            stmt.setInt(1, RETENTION_DAYS);
+            int pruned = stmt.executeUpdate();
+            if(pruned > 0)
+                LOG.info(String.format("Pruned %d change log rows older than %d days", pruned, RETENTION_DAYS));
+        } catch (SQLException e) {
+            LOG.error("Pruning the change log failed:", e);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.servantscode.ministry.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+interface ConnectionSource {
+    Connection open() throws SQLException;
+}
@@ -0,0 +1,52 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.ministry.ServiceConfig;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Runs a query through a server-side cursor. The Postgres driver only fetches in batches when autocommit is off
+ * and a fetch size is set; otherwise it reads the whole result set into the heap before returning the first row.
+ */
+final class CursorQuery {
+    static final int FETCH_SIZE = ServiceConfig.getInt("DB_FETCH_SIZE", 500);
+
+    interface ResultHandler {
+        void handle(ResultSet rs) throws SQLException, IOException;
+    }
+
+    private interface StatementFactory {
+        PreparedStatement prepare(Connection conn) throws SQLException;
+    }
+
+    private CursorQuery() {}
+
+    static void run(Connection conn, QueryBuilder query, int fetchSize, ResultHandler handler) throws SQLException, IOException {
+        run(conn, query::prepareStatement, fetchSize, handler);
+    }
+
+    static void run(Connection conn, PreparedQuery query, int fetchSize, ResultHandler handler, Object... params) throws SQLException, IOException {
+        run(conn, c -> query.prepare(c, params), fetchSize, handler);
+    }
+
+    // ----- Private -----
+    private static void run(Connection conn, StatementFactory statements, int fetchSize, ResultHandler handler) throws SQLException, IOException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = statements.prepare(conn)) {
+            stmt.setFetchSize(fetchSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                handler.handle(rs);
+            }
+        } finally {
+            // Read only; ending the transaction closes the cursor before the connection goes back to the pool.
+            conn.rollback();
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+}
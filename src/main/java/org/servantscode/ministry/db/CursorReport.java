@@ -0,0 +1,83 @@
+package org.servantscode.ministry.db;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.servantscode.commons.db.ReportStreamingOutput;
+import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.ministry.ServiceConfig;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A report read through a server-side cursor and written as CSV or newline-delimited JSON while the rows
+ * arrive, so the first byte goes out before the query has finished and memory stays at one fetch batch.
+ */
+public class CursorReport extends ReportStreamingOutput {
+    public enum Format {CSV, NDJSON};
+
+    public static final String NDJSON_TYPE = "application/x-ndjson";
+
+    private static final int FETCH_SIZE = ServiceConfig.getInt("REPORT_FETCH_SIZE", 1000);
+    private static final JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final ConnectionSource connections;
+    private final QueryBuilder query;
+    private final List<String> fields;
+    private final Format format;
+    private final String failure;
+
+    CursorReport(ConnectionSource connections, QueryBuilder query, List<String> fields, Format format, String failure) {
+        super(fields);
+        this.connections = connections;
+        this.query = query;
+        this.fields = fields;
+        this.format = format;
+        this.failure = failure;
+    }
+
+    public Format getFormat() { return format; }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try (Connection conn = connections.open()) {
+            CursorQuery.run(conn, query, FETCH_SIZE, rs -> {
+                if(format == Format.NDJSON)
+                    writeNdjson(output, rs);
+                else
+                    writeCsv(output, rs);
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(failure, e);
+        }
+    }
+
+    // ----- Private -----
+    private void writeNdjson(OutputStream output, ResultSet rs) throws IOException, SQLException {
+        try (JsonGenerator json = JSON.createGenerator(output)) {
+            json.setRootValueSeparator(null);
+            while (rs.next()) {
+                json.writeStartObject();
+                for(String field: fields) {
+                    Object value = rs.getObject(field);
+                    json.writeFieldName(field);
+                    if(value == null)
+                        json.writeNull();
+                    else if(value instanceof Number)
+                        json.writeNumber(value.toString());
+                    else if(value instanceof Boolean)
+                        json.writeBoolean((Boolean) value);
+                    else
+                        json.writeString(value.toString());
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+            }
+        }
+    }
+}
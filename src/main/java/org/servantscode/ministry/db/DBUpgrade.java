@@ -1,41 +1,406 @@
-package org.servantscode.ministry.db;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.servantscode.commons.db.AbstractDBUpgrade;
-
-import java.sql.SQLException;
-
-public class DBUpgrade extends AbstractDBUpgrade {
-    private static final Logger LOG = LogManager.getLogger(DBUpgrade.class);
-
-    @Override
-    public void doUpgrade() throws SQLException {
-        LOG.info("Verifying database structures.");
-
-        if(!tableExists("ministries")) {
-            LOG.info("-- Creating ministries table");
-            runSql("CREATE TABLE ministries (id SERIAL PRIMARY KEY, " +
-                                            "name TEXT, " +
-                                            "description TEXT, " +
-                                            "org_id INTEGER references organizations(id) ON DELETE CASCADE)");
-        }
-
-        if(!tableExists("ministry_roles")) {
-            LOG.info("-- Creating ministry_roles table");
-            runSql("CREATE TABLE ministry_roles (id SERIAL PRIMARY KEY, " +
-                                                "ministry_id INTEGER REFERENCES ministries(id) ON DELETE CASCADE NOT NULL, " +
-                                                "name TEXT NOT NULL, " +
-                                                "contact BOOLEAN, " +
-                                                "leader BOOLEAN, " +
-                                                "org_id INTEGER references organizations(id) ON DELETE CASCADE)");
-        }
-
-        if(!tableExists("ministry_enrollments")) {
-            LOG.info("-- Creating ministry_enrollments table");
-            runSql("CREATE TABLE ministry_enrollments (person_id INTEGER REFERENCES people(id) ON DELETE CASCADE, " +
-                                                      "ministry_id INTEGER REFERENCES ministries(id) ON DELETE CASCADE, " +
-                                                      "role_id INTEGER REFERENCES ministry_roles(id) ON DELETE SET NULL)");
-        }
-    }
-}
+package org.servantscode.ministry.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.db.AbstractDBUpgrade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class DBUpgrade extends AbstractDBUpgrade {
+    private static final Logger LOG = LogManager.getLogger(DBUpgrade.class);
+
+    @Override
+    public void doUpgrade() throws SQLException {
+        LOG.info("Verifying database structures.");
+
+        if(!tableExists("ministry_schema_versions")) {
+            LOG.info("-- Creating ministry_schema_versions table");
+            runSql("CREATE TABLE ministry_schema_versions (version INTEGER PRIMARY KEY, " +
+                                                          "description TEXT NOT NULL, " +
+                                                          "applied_time TIMESTAMP NOT NULL DEFAULT now())");
+        }
+
+        int version = currentVersion();
+        LOG.info("-- Ministry schema is at version " + version);
+
+        if(version < 1) {
+            createBaseTables();
+            recordVersion(1, "Base ministry, role and enrollment tables");
+        }
+
+        if(version < 2) {
+            addLookupIndexes();
+            recordVersion(2, "Lookup indexes and unique enrollment key");
+        }
+
+        if(version < 3) {
+            addCatalogNotifications();
+            recordVersion(3, "Catalog change notifications for ministries and roles");
+        }
+
+        if(version < 4) {
+            addRowVersions();
+            recordVersion(4, "Row versions for conditional requests");
+        }
+
+        // Optional, since pg_trgm may not be installable: the step is only recorded once it succeeds, and is tried
+        // again at every start until then. Earlier releases recorded it either way, so the indexes are checked too.
+        boolean trigramsRecorded = isApplied(5);
+        if(!trigramsRecorded || !indexesExist("ministries_name_trgm_idx", "ministry_roles_name_trgm_idx")) {
+            if(addTrigramIndexes() && !trigramsRecorded)
+                recordVersion(5, "Trigram indexes for name search");
+        }
+
+        if(version < 6) {
+            addRosterStats();
+            recordVersion(6, "Member counts per ministry and role, maintained by trigger");
+        }
+
+        if(version < 7) {
+            addChangeLog();
+            recordVersion(7, "Change log of ministries, roles and enrollments");
+        }
+
+        if(version < 8) {
+            addChangePositions();
+            recordVersion(8, "Change log positions assigned at commit");
+        }
+
+        if(version < 9) {
+            numberChangesPerOrganization();
+            recordVersion(9, "Change log positions numbered per organization");
+        }
+    }
+
+    // ----- Migrations -----
+    private void createBaseTables() throws SQLException {
+        if(!tableExists("ministries")) {
+            LOG.info("-- Creating ministries table");
+            runSql("CREATE TABLE ministries (id SERIAL PRIMARY KEY, " +
+                                            "name TEXT, " +
+                                            "description TEXT, " +
+                                            "org_id INTEGER references organizations(id) ON DELETE CASCADE)");
+        }
+
+        if(!tableExists("ministry_roles")) {
+            LOG.info("-- Creating ministry_roles table");
+            runSql("CREATE TABLE ministry_roles (id SERIAL PRIMARY KEY, " +
+                                                "ministry_id INTEGER REFERENCES ministries(id) ON DELETE CASCADE NOT NULL, " +
+                                                "name TEXT NOT NULL, " +
+                                                "contact BOOLEAN, " +
+                                                "leader BOOLEAN, " +
+                                                "org_id INTEGER references organizations(id) ON DELETE CASCADE)");
+        }
+
+        if(!tableExists("ministry_enrollments")) {
+            LOG.info("-- Creating ministry_enrollments table");
+            runSql("CREATE TABLE ministry_enrollments (person_id INTEGER REFERENCES people(id) ON DELETE CASCADE, " +
+                                                      "ministry_id INTEGER REFERENCES ministries(id) ON DELETE CASCADE, " +
+                                                      "role_id INTEGER REFERENCES ministry_roles(id) ON DELETE SET NULL)");
+        }
+    }
+
+    private void addLookupIndexes() throws SQLException {
+        removeDuplicateEnrollments();
+
+        createIndex("ministries_org_name_idx", "ministries (org_id, name)", false);
+        createIndex("ministry_roles_ministry_idx", "ministry_roles (ministry_id)", false);
+        createIndex("ministry_enrollments_key", "ministry_enrollments (ministry_id, person_id)", true);
+        createIndex("ministry_enrollments_person_idx", "ministry_enrollments (person_id)", false);
+        createIndex("ministry_enrollments_role_idx", "ministry_enrollments (role_id)", false);
+    }
+
+    // The unique key cannot be built over duplicates. Of each person's enrollments in a ministry the one with
+    // a role is kept, the lowest role id if several have one; the rest are identical, so which copy stays does
+    // not matter. Removed rows are moved to ministry_enrollments_duplicates in the same statement, so they can
+    // be reviewed and put back if the wrong role survived.
+    private void removeDuplicateEnrollments() throws SQLException {
+        LOG.info("-- Removing duplicate ministry enrollments");
+        runSql("CREATE TABLE IF NOT EXISTS ministry_enrollments_duplicates (person_id INTEGER, " +
+                                                                          "ministry_id INTEGER, " +
+                                                                          "role_id INTEGER, " +
+                                                                          "removed_time TIMESTAMP NOT NULL DEFAULT now())");
+        int removed = 0;
+        try(Connection conn = getConnection();
+            PreparedStatement stmt = conn.prepareStatement(
+                    "WITH removed AS (" +
+                    "  DELETE FROM ministry_enrollments e USING " +
+                    "  (SELECT ctid, row_number() OVER (PARTITION BY ministry_id, person_id ORDER BY role_id NULLS LAST, ctid) AS rank " +
+                    "   FROM ministry_enrollments) d " +
+                    "  WHERE e.ctid=d.ctid AND d.rank > 1 RETURNING e.person_id, e.ministry_id, e.role_id" +
+                    ") " +
+                    "INSERT INTO ministry_enrollments_duplicates (person_id, ministry_id, role_id) " +
+                    "SELECT person_id, ministry_id, role_id FROM removed RETURNING ministry_id, person_id, role_id");
+            ResultSet rs = stmt.executeQuery()) {
+
+            while(rs.next()) {
+                removed++;
+                LOG.warn(String.format("-- Moved duplicate enrollment to ministry_enrollments_duplicates: ministry %d, person %d, role %s",
+                        rs.getInt(1), rs.getInt(2), rs.getObject(3)));
+            }
+        }
+        LOG.info("-- Moved " + removed + " duplicate ministry enrollments to ministry_enrollments_duplicates");
+    }
+
+    private void addCatalogNotifications() throws SQLException {
+        LOG.info("-- Creating catalog change notification triggers");
+        runSql("CREATE OR REPLACE FUNCTION ministry_catalog_notify() RETURNS trigger AS $$ " +
+               "DECLARE rec RECORD; " +
+               "BEGIN " +
+               "  IF TG_OP = 'DELETE' THEN rec := OLD; ELSE rec := NEW; END IF; " +
+               "  IF TG_TABLE_NAME = 'ministries' THEN " +
+               "    PERFORM pg_notify('" + CatalogCaches.CHANNEL + "', concat_ws(':', 'ministry', TG_OP, COALESCE(rec.org_id, 0), rec.id)); " +
+               "  ELSE " +
+               "    PERFORM pg_notify('" + CatalogCaches.CHANNEL + "', concat_ws(':', 'role', TG_OP, COALESCE(rec.org_id, 0), rec.id, rec.ministry_id)); " +
+               "  END IF; " +
+               "  RETURN NULL; " +
+               "END; $$ LANGUAGE plpgsql");
+
+        for(String table: new String[] {"ministries", "ministry_roles"}) {
+            runSql(String.format("DROP TRIGGER IF EXISTS %s_catalog_notify ON %s", table, table));
+            runSql(String.format("CREATE TRIGGER %s_catalog_notify AFTER INSERT OR UPDATE OR DELETE ON %s " +
+                                 "FOR EACH ROW EXECUTE PROCEDURE ministry_catalog_notify()", table, table));
+        }
+    }
+
+    private void addRowVersions() throws SQLException {
+        LOG.info("-- Adding row versions");
+        runSql("CREATE SEQUENCE IF NOT EXISTS ministry_row_version_seq");
+        runSql("CREATE OR REPLACE FUNCTION ministry_row_version() RETURNS trigger AS $$ " +
+               "BEGIN NEW.row_version := nextval('ministry_row_version_seq'); RETURN NEW; END; " +
+               "$$ LANGUAGE plpgsql");
+
+        // Existing rows keep a NULL version (read as 0) rather than rewriting the tables to backfill them.
+        for(String table: new String[] {"ministries", "ministry_roles", "ministry_enrollments"}) {
+            runSql(String.format("ALTER TABLE %s ADD COLUMN IF NOT EXISTS row_version BIGINT", table));
+            runSql(String.format("DROP TRIGGER IF EXISTS %s_row_version ON %s", table, table));
+            runSql(String.format("CREATE TRIGGER %s_row_version BEFORE INSERT OR UPDATE ON %s " +
+                                 "FOR EACH ROW EXECUTE PROCEDURE ministry_row_version()", table, table));
+        }
+    }
+
+    // Trigram GIN indexes serve both the ILIKE '%term%' matches of regular searches and similarity matching.
+    // Creating the extension needs elevated privileges; without it searches still work, just unindexed.
+    private boolean addTrigramIndexes() throws SQLException {
+        try {
+            runSql("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        } catch (SQLException e) {
+            LOG.warn("-- Could not create the pg_trgm extension, name searches will not be indexed until it is: " + e.getMessage());
+            return false;
+        }
+
+        createIndex("ministries_name_trgm_idx", "ministries USING gin (name gin_trgm_ops)", false);
+        createIndex("ministry_roles_name_trgm_idx", "ministry_roles USING gin (name gin_trgm_ops)", false);
+        return true;
+    }
+
+    // Counts are adjusted row by row as enrollments change, so reading them never scans a roster. The trigger is
+    // created and the counts backfilled in one transaction, holding off enrollment writes, so none are missed or
+    // counted twice.
+    private void addRosterStats() throws SQLException {
+        LOG.info("-- Creating roster statistics tables");
+        runSql("CREATE TABLE IF NOT EXISTS ministry_stats (ministry_id INTEGER PRIMARY KEY REFERENCES ministries(id) ON DELETE CASCADE, " +
+                                                         "member_count INTEGER NOT NULL DEFAULT 0)");
+        runSql("CREATE TABLE IF NOT EXISTS ministry_role_stats (role_id INTEGER PRIMARY KEY REFERENCES ministry_roles(id) ON DELETE CASCADE, " +
+                                                              "ministry_id INTEGER NOT NULL, " +
+                                                              "member_count INTEGER NOT NULL DEFAULT 0)");
+
+        runSql("CREATE OR REPLACE FUNCTION ministry_roster_stats() RETURNS trigger AS $$ " +
+               "BEGIN " +
+               "  IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN " +
+               "    IF TG_OP = 'DELETE' OR OLD.ministry_id IS DISTINCT FROM NEW.ministry_id THEN " +
+               "      UPDATE ministry_stats SET member_count = member_count - 1 WHERE ministry_id = OLD.ministry_id; " +
+               "    END IF; " +
+               "    IF OLD.role_id IS NOT NULL AND (TG_OP = 'DELETE' OR OLD.role_id IS DISTINCT FROM NEW.role_id) THEN " +
+               "      UPDATE ministry_role_stats SET member_count = member_count - 1 WHERE role_id = OLD.role_id; " +
+               "    END IF; " +
+               "  END IF; " +
+               "  IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN " +
+               "    IF TG_OP = 'INSERT' OR OLD.ministry_id IS DISTINCT FROM NEW.ministry_id THEN " +
+               "      INSERT INTO ministry_stats (ministry_id, member_count) VALUES (NEW.ministry_id, 1) " +
+               "        ON CONFLICT (ministry_id) DO UPDATE SET member_count = ministry_stats.member_count + 1; " +
+               "    END IF; " +
+               "    IF NEW.role_id IS NOT NULL AND (TG_OP = 'INSERT' OR OLD.role_id IS DISTINCT FROM NEW.role_id) THEN " +
+               "      INSERT INTO ministry_role_stats (role_id, ministry_id, member_count) VALUES (NEW.role_id, NEW.ministry_id, 1) " +
+               "        ON CONFLICT (role_id) DO UPDATE SET member_count = ministry_role_stats.member_count + 1; " +
+               "    END IF; " +
+               "  END IF; " +
+               "  RETURN NULL; " +
+               "END; $$ LANGUAGE plpgsql");
+
+        runSql("DO $$ BEGIN " +
+               "  LOCK TABLE ministry_enrollments IN SHARE ROW EXCLUSIVE MODE; " +
+               "  DROP TRIGGER IF EXISTS ministry_enrollments_roster_stats ON ministry_enrollments; " +
+               "  CREATE TRIGGER ministry_enrollments_roster_stats AFTER INSERT OR DELETE OR UPDATE OF ministry_id, role_id " +
+               "    ON ministry_enrollments FOR EACH ROW EXECUTE PROCEDURE ministry_roster_stats(); " +
+               "  DELETE FROM ministry_role_stats; " +
+               "  DELETE FROM ministry_stats; " +
+               "  INSERT INTO ministry_stats (ministry_id, member_count) " +
+               "    SELECT ministry_id, count(1) FROM ministry_enrollments WHERE ministry_id IS NOT NULL GROUP BY ministry_id; " +
+               "  INSERT INTO ministry_role_stats (role_id, ministry_id, member_count) " +
+               "    SELECT role_id, min(ministry_id), count(1) FROM ministry_enrollments WHERE role_id IS NOT NULL GROUP BY role_id; " +
+               "END $$");
+    }
+
+    // Triggers append a row per change with no position; see addChangePositions for how positions are assigned.
+    private void addChangeLog() throws SQLException {
+        LOG.info("-- Creating change log");
+        runSql("CREATE TABLE IF NOT EXISTS ministry_changes (id BIGSERIAL PRIMARY KEY, " +
+                                                           "position BIGINT, " +
+                                                           "org_id INTEGER, " +
+                                                           "entity TEXT NOT NULL, " +
+                                                           "operation TEXT NOT NULL, " +
+                                                           "ministry_id INTEGER, " +
+                                                           "role_id INTEGER, " +
+                                                           "person_id INTEGER, " +
+                                                           "changed_time TIMESTAMP NOT NULL DEFAULT now())");
+        createIndex("ministry_changes_position_key", "ministry_changes (position)", true);
+        createIndex("ministry_changes_org_position_idx", "ministry_changes (org_id, position)", false);
+        createIndex("ministry_changes_pending_idx", "ministry_changes (id) WHERE position IS NULL", false);
+
+        // Enrollments carry no org_id; when a ministry is deleted its enrollments cascade after it is gone, so the
+        // person's organization is used instead.
+        runSql("CREATE OR REPLACE FUNCTION ministry_change_log() RETURNS trigger AS $$ " +
+               "DECLARE rec RECORD; org INTEGER; " +
+               "BEGIN " +
+               "  IF TG_OP = 'DELETE' THEN rec := OLD; ELSE rec := NEW; END IF; " +
+               "  IF TG_TABLE_NAME = 'ministries' THEN " +
+               "    org := rec.org_id; " +
+               "    INSERT INTO ministry_changes (org_id, entity, operation, ministry_id) VALUES (org, 'ministry', TG_OP, rec.id); " +
+               "  ELSIF TG_TABLE_NAME = 'ministry_roles' THEN " +
+               "    org := rec.org_id; " +
+               "    INSERT INTO ministry_changes (org_id, entity, operation, ministry_id, role_id) VALUES (org, 'role', TG_OP, rec.ministry_id, rec.id); " +
+               "  ELSE " +
+               "    org := COALESCE((SELECT org_id FROM ministries WHERE id = rec.ministry_id), (SELECT org_id FROM people WHERE id = rec.person_id)); " +
+               "    INSERT INTO ministry_changes (org_id, entity, operation, ministry_id, role_id, person_id) " +
+               "      VALUES (org, 'enrollment', TG_OP, rec.ministry_id, rec.role_id, rec.person_id); " +
+               "  END IF; " +
+               "  PERFORM pg_notify('" + ChangeFeed.CHANNEL + "', COALESCE(org, 0)::text); " +
+               "  RETURN NULL; " +
+               "END; $$ LANGUAGE plpgsql");
+
+        for(String table: new String[] {"ministries", "ministry_roles"}) {
+            runSql(String.format("DROP TRIGGER IF EXISTS %s_change_log ON %s", table, table));
+            runSql(String.format("CREATE TRIGGER %s_change_log AFTER INSERT OR UPDATE OR DELETE ON %s " +
+                                 "FOR EACH ROW EXECUTE PROCEDURE ministry_change_log()", table, table));
+        }
+        runSql("DROP TRIGGER IF EXISTS ministry_enrollments_change_log ON ministry_enrollments");
+        runSql("CREATE TRIGGER ministry_enrollments_change_log AFTER INSERT OR DELETE OR UPDATE OF ministry_id, role_id ON ministry_enrollments " +
+               "FOR EACH ROW EXECUTE PROCEDURE ministry_change_log()");
+    }
+
+    // Positions are assigned as each writing transaction commits: a deferred trigger takes a lock held until the
+    // commit completes and numbers the row after the highest committed position. Positions therefore follow
+    // commit order with no gaps, so a reader never sees a position before all lower ones are visible, and reading
+    // the feed never writes. Writers are serialized only for the moment of numbering. This relies on writers
+    // running at READ COMMITTED, so the numbering sees every position committed before it took the lock.
+    //
+    // The trigger is created, and rows left unnumbered by the previous scheme are numbered, with the change log
+    // locked against writers, so no row is missed by both.
+    private void addChangePositions() throws SQLException {
+        LOG.info("-- Assigning change log positions at commit");
+        runSql("CREATE OR REPLACE FUNCTION ministry_change_position() RETURNS trigger AS $$ " +
+               "BEGIN " +
+               "  PERFORM pg_advisory_xact_lock(hashtext('ministry_changes')); " +
+               "  UPDATE ministry_changes SET position = (SELECT COALESCE(max(position), 0) FROM ministry_changes) + 1 WHERE id = NEW.id; " +
+               "  RETURN NULL; " +
+               "END; $$ LANGUAGE plpgsql");
+
+        runSql("DO $$ BEGIN " +
+               "  LOCK TABLE ministry_changes IN SHARE ROW EXCLUSIVE MODE; " +
+               "  DROP TRIGGER IF EXISTS ministry_changes_position ON ministry_changes; " +
+               "  CREATE CONSTRAINT TRIGGER ministry_changes_position AFTER INSERT ON ministry_changes " +
+               "    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE ministry_change_position(); " +
+               "  WITH pending AS (SELECT id, row_number() OVER (ORDER BY id) AS n FROM ministry_changes WHERE position IS NULL) " +
+               "  UPDATE ministry_changes c SET position = (SELECT COALESCE(max(position), 0) FROM ministry_changes) + p.n " +
+               "    FROM pending p WHERE c.id = p.id; " +
+               "END $$");
+        runSql("DROP INDEX CONCURRENTLY IF EXISTS ministry_changes_pending_idx");
+    }
+
+    // Feeds are read per organization, so positions only need to be ordered within one, and committing writers
+    // in different organizations no longer wait on each other. Each transaction's rows in an organization are
+    // numbered in one statement by the first of them to reach commit; the rest find theirs already numbered.
+    // Existing positions were unique across organizations, so numbering carries on from them without a reset.
+    private void numberChangesPerOrganization() throws SQLException {
+        LOG.info("-- Numbering change log positions per organization");
+        createIndex("ministry_changes_pending_idx", "ministry_changes (org_id, id) WHERE position IS NULL", false);
+        createIndex("ministry_changes_org_position_key", "ministry_changes (org_id, position)", true);
+
+        runSql("CREATE OR REPLACE FUNCTION ministry_change_position() RETURNS trigger AS $$ " +
+               "DECLARE base BIGINT; " +
+               "BEGIN " +
+               "  IF (SELECT position FROM ministry_changes WHERE id = NEW.id) IS NOT NULL THEN RETURN NULL; END IF; " +
+               "  PERFORM pg_advisory_xact_lock(hashtext('ministry_changes'), COALESCE(NEW.org_id, 0)); " +
+               "  IF NEW.org_id IS NULL THEN " +
+               "    SELECT COALESCE(max(position), 0) INTO base FROM ministry_changes WHERE org_id IS NULL; " +
+               "  ELSE " +
+               "    SELECT COALESCE(max(position), 0) INTO base FROM ministry_changes WHERE org_id = NEW.org_id; " +
+               "  END IF; " +
+               "  UPDATE ministry_changes c SET position = base + p.n " +
+               "    FROM (SELECT id, row_number() OVER (ORDER BY id) AS n FROM ministry_changes " +
+               "          WHERE position IS NULL AND org_id IS NOT DISTINCT FROM NEW.org_id) p " +
+               "    WHERE c.id = p.id; " +
+               "  RETURN NULL; " +
+               "END; $$ LANGUAGE plpgsql");
+
+        runSql("DROP INDEX CONCURRENTLY IF EXISTS ministry_changes_position_key");
+        runSql("DROP INDEX CONCURRENTLY IF EXISTS ministry_changes_org_position_idx");
+    }
+
+    // ----- Private -----
+    // Concurrent builds cannot run inside a transaction and leave an INVALID index behind if they fail,
+    // so any leftover from an interrupted attempt is dropped before rebuilding.
+    private void createIndex(String name, String definition, boolean unique) throws SQLException {
+        LOG.info("-- Creating index " + name);
+        runSql("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+        runSql(String.format("CREATE %sINDEX CONCURRENTLY %s ON %s", unique? "UNIQUE ": "", name, definition));
+    }
+
+    private int currentVersion() throws SQLException {
+        try(Connection conn = getConnection();
+            PreparedStatement stmt = conn.prepareStatement("SELECT COALESCE(MAX(version), 0) FROM ministry_schema_versions");
+            ResultSet rs = stmt.executeQuery()) {
+
+            return rs.next()? rs.getInt(1): 0;
+        }
+    }
+
+    private boolean isApplied(int version) throws SQLException {
+        try(Connection conn = getConnection();
+            PreparedStatement stmt = conn.prepareStatement("SELECT EXISTS (SELECT 1 FROM ministry_schema_versions WHERE version=?)")) {
+
+            stmt.setInt(1, version);
+            try(ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /** Whether every named index exists and is valid, as an interrupted concurrent build leaves it invalid. */
+    private boolean indexesExist(String... names) throws SQLException {
+        try(Connection conn = getConnection();
+            PreparedStatement stmt = conn.prepareStatement("SELECT count(1) FROM pg_index i JOIN pg_class c ON c.oid=i.indexrelid " +
+                                                           "WHERE c.relname = ANY(?) AND i.indisvalid")) {
+
+            stmt.setArray(1, conn.createArrayOf("text", names));
+            try(ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == names.length;
+            }
+        }
+    }
+
+    private void recordVersion(int version, String description) throws SQLException {
+        try(Connection conn = getConnection();
+            PreparedStatement stmt = conn.prepareStatement("INSERT INTO ministry_schema_versions(version, description) VALUES (?, ?)")) {
+
+            stmt.setInt(1, version);
+            stmt.setString(2, description);
+            stmt.executeUpdate();
+        }
+        LOG.info("-- Ministry schema upgraded to version " + version + ": " + description);
+    }
+}
@@ -1,47 +1,151 @@
 package org.servantscode.ministry.db;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.servantscode.commons.db.EasyDB;
-import org.servantscode.commons.db.ReportStreamingOutput;
-import org.servantscode.commons.search.InsertBuilder;
 import org.servantscode.commons.search.QueryBuilder;
-import org.servantscode.commons.search.UpdateBuilder;
 import org.servantscode.commons.security.OrganizationContext;
+import org.servantscode.ministry.EnrollmentResult;
+import org.servantscode.ministry.MinistryChange;
+import org.servantscode.ministry.MinistryChanges;
 import org.servantscode.ministry.MinistryEnrollment;
 
-import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.servantscode.ministry.EnrollmentResult.Status.ALREADY_ENROLLED;
+import static org.servantscode.ministry.EnrollmentResult.Status.CREATED;
+import static org.servantscode.ministry.EnrollmentResult.Status.NOT_FOUND;
 
 public class EnrollmentDB extends EasyDB<MinistryEnrollment> {
+    private static final JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    // Same shape as baseQuery(), spelled out so the text is fixed.
+    private static final String ENROLLMENTS_FROM = " FROM people p, ministries m, ministry_enrollments e LEFT JOIN ministry_roles r ON role_id=r.id " +
+                                                   "WHERE p.org_id=? AND m.org_id=? AND r.org_id=? AND p.id = person_id AND m.id = e.ministry_id";
+    private static final String ENROLLMENTS = "SELECT e.*, p.name AS person_name, m.name AS ministry_name, r.name AS role" + ENROLLMENTS_FROM;
+    // Field for field what Jackson writes for a MinistryEnrollment.
+    private static final String ENROLLMENTS_JSON = "SELECT json_build_object('personId', e.person_id, 'personName', p.name, " +
+                                                   "'ministryId', e.ministry_id, 'ministryName', m.name, " +
+                                                   "'roleId', COALESCE(e.role_id, 0), 'role', r.name)" + ENROLLMENTS_FROM;
+    private static final PreparedQuery MEMBERSHIP_BY_MINISTRY = PreparedQuery.register("membership_by_ministry", ENROLLMENTS + " AND e.ministry_id=?");
+    private static final PreparedQuery ENROLLMENTS_BY_PERSON = PreparedQuery.register("enrollments_by_person", ENROLLMENTS + " AND person_id=?");
+    private static final PreparedQuery MEMBERSHIP_JSON = PreparedQuery.register("membership_by_ministry_json", ENROLLMENTS_JSON + " AND e.ministry_id=?");
+    private static final PreparedQuery ENROLLMENTS_JSON_BY_PERSON = PreparedQuery.register("enrollments_by_person_json", ENROLLMENTS_JSON + " AND person_id=?");
+    private static final PreparedQuery MEMBERSHIP_VERSION = PreparedQuery.register("membership_version",
+            "SELECT count(1), COALESCE(max(e.row_version), 0), COALESCE(sum(hashtext(p.name)), 0), " +
+            "(SELECT COALESCE(max(row_version), 0) FROM ministry_roles WHERE ministry_id=? AND org_id=?), " +
+            "(SELECT COALESCE(max(row_version), 0) FROM ministries WHERE id=? AND org_id=?) " +
+            "FROM ministry_enrollments e JOIN people p ON p.id=e.person_id AND p.org_id=? WHERE e.ministry_id=?");
+
+    private static final PreparedQuery OLDEST_CHANGE = PreparedQuery.register("oldest_change",
+            "SELECT min(position) FROM ministry_changes WHERE org_id=?");
+    private static final PreparedQuery CHANGES_SINCE = PreparedQuery.register("changes_since",
+            "SELECT * FROM ministry_changes WHERE org_id=? AND position > ? ORDER BY position LIMIT ?");
 
     public EnrollmentDB() {
         super(MinistryEnrollment.class, "person_name");
     }
 
     private QueryBuilder baseQuery() {
+        return baseQuery(OrganizationContext.orgId());
+    }
+
+    QueryBuilder baseQuery(int orgId) {
         return select("e.*", "p.name AS person_name", "m.name AS ministry_name", "r.name AS role")
                 .from("people p", "ministries m", "ministry_enrollments e")
                 .join("LEFT JOIN ministry_roles r ON role_id=r.id")
-                .where("p.org_id=?", OrganizationContext.orgId())
-                .where("m.org_id=?", OrganizationContext.orgId())
-                .where("r.org_id=?", OrganizationContext.orgId());
+                .where("p.org_id=?", orgId)
+                .where("m.org_id=?", orgId)
+                .where("r.org_id=?", orgId);
     }
 
     public List<MinistryEnrollment> getMinistryMembership(int ministryId) {
-        return get(baseQuery().where("e.ministry_id=?", ministryId).where("p.id = person_id").where("m.id = e.ministry_id"));
+        return listEnrollments(MEMBERSHIP_BY_MINISTRY, ministryId, "Could not retrieve membership of ministry: " + ministryId);
+    }
+
+    /** The roster at the given membership version, shared with identical concurrent requests. */
+    public List<MinistryEnrollment> getMinistryMembership(int ministryId, String version) {
+        return CatalogCaches.MEMBERSHIP_READS.get(OrganizationContext.orgId(), asList(ministryId, version), () -> getMinistryMembership(ministryId));
     }
 
     public List<MinistryEnrollment> getPersonEnrollment(int personId) {
-        return get(baseQuery().where("person_id=?", personId).where("p.id = person_id").where("m.id = e.ministry_id"));
+        return listEnrollments(ENROLLMENTS_BY_PERSON, personId, "Could not retrieve enrollments of person: " + personId);
+    }
+
+    /**
+     * Enrollments for many people in one query, keyed by person id in the order requested. Every requested id
+     * has an entry, empty if the person has no enrollments in the organization.
+     */
+    public Map<Integer, List<MinistryEnrollment>> getPersonEnrollments(Collection<Integer> personIds) {
+        Map<Integer, List<MinistryEnrollment>> enrollments = new LinkedHashMap<>();
+        for(Integer personId: personIds)
+            enrollments.put(personId, new ArrayList<>());
+
+        try (Connection conn = connectForRead()) {
+            QueryBuilder query = baseQuery().where("e.person_id = ANY(?)", conn.createArrayOf("integer", enrollments.keySet().toArray()))
+                    .where("p.id = person_id").where("m.id = e.ministry_id").sort("e.person_id, m.name");
+            for(MinistryEnrollment enrollment: Paging.read(conn, query, this::processRow, false).getResults())
+                enrollments.get(enrollment.getPersonId()).add(enrollment);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not retrieve enrollments for people", e);
+        }
+        return enrollments;
+    }
+
+    /** Writes the roster as a JSON array row by row as it is read, so memory use does not grow with the roster. */
+    public StreamingOutput streamMinistryMembership(int ministryId) {
+        return streamEnrollments(baseQuery().where("e.ministry_id=?", ministryId).where("p.id = person_id").where("m.id = e.ministry_id"));
+    }
+
+    public StreamingOutput streamPersonEnrollment(int personId) {
+        return streamEnrollments(baseQuery().where("person_id=?", personId).where("p.id = person_id").where("m.id = e.ministry_id"));
+    }
+
+    /** The same roster as {@link #getMinistryMembership}, with each row's JSON built by Postgres and passed through as is. */
+    public StreamingOutput getMinistryMembershipJson(int ministryId) {
+        int orgId = OrganizationContext.orgId();
+        return JsonRows.stream(this::connectForRead, MEMBERSHIP_JSON, "Could not retrieve membership of ministry: " + ministryId, orgId, orgId, orgId, ministryId);
     }
 
-    public StreamingOutput getReportReader(final List<String> fields) {
+    public StreamingOutput getPersonEnrollmentJson(int personId) {
+        int orgId = OrganizationContext.orgId();
+        return JsonRows.stream(this::connectForRead, ENROLLMENTS_JSON_BY_PERSON, "Could not retrieve enrollments of person: " + personId, orgId, orgId, orgId, personId);
+    }
+
+    /**
+     * Changes whenever the ministry's roster, its roles, its name or a member's name changes. Computed in the
+     * database without reading the roster rows back.
+     */
+    public String getMembershipVersion(int ministryId) {
+        int orgId = OrganizationContext.orgId();
+        return CatalogCaches.MEMBERSHIP_VERSION_READS.get(orgId, ministryId, () -> {
+            try (Connection conn = connectForRead();
+                 PreparedStatement stmt = MEMBERSHIP_VERSION.prepare(conn, ministryId, orgId, ministryId, orgId, orgId, ministryId)) {
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return String.format("%d:%d:%d:%d:%d", rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5));
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not get membership version for ministry: " + ministryId, e);
+            }
+        });
+    }
+
+    public CursorReport getReportReader(final List<String> fields, CursorReport.Format format) {
         final QueryBuilder query = select("e.*", "p.name AS person_name", "m.name AS ministry_name", "r.name AS role")
                 .from("ministry_enrollments e")
                 .leftJoin("ministries m ON m.id=e.ministry_id")
@@ -49,47 +153,260 @@ public class EnrollmentDB extends EasyDB<MinistryEnrollment> {
                 .leftJoin("ministry_roles r ON role_id=r.id")
                 .inOrg("p.org_id");
 
-        return new ReportStreamingOutput(fields) {
-            @Override
-            public void write(OutputStream output) throws WebApplicationException {
-                try (Connection conn = getConnection();
-                     PreparedStatement stmt = query.prepareStatement(conn);
-                     ResultSet rs = stmt.executeQuery()) {
+        return new CursorReport(this::connectForRead, query, fields, format, "Could not retrieve relationships");
+    }
+
+    /**
+     * Inserts the enrollment if the person, ministry and role all belong to the organization and the person is
+     * not already in the ministry. CREATED carries the enrollment populated; otherwise the status says why not.
+     */
+    public EnrollmentResult createEnrollment(MinistryEnrollment enrollment) {
+        String sql = "WITH created AS (" +
+                     "  INSERT INTO ministry_enrollments(person_id, ministry_id, role_id)" +
+                     "  SELECT p.id, m.id, r.id FROM people p, ministries m, ministry_roles r" +
+                     "  WHERE p.id=? AND p.org_id=? AND m.id=? AND m.org_id=? AND r.id=? AND r.ministry_id=m.id AND r.org_id=?" +
+                     "  ON CONFLICT (ministry_id, person_id) DO NOTHING" +
+                     "  RETURNING *" +
+                     ") " + populated("created");
+        int orgId = OrganizationContext.orgId();
+        MinistryEnrollment created = writeAndPopulate(sql, "Could not create enrollment", enrollment.getPersonId(), orgId, enrollment.getMinistryId(), orgId, enrollment.getRoleId(), orgId);
+        if(created != null)
+            return new EnrollmentResult(CREATED, created);
+        return new EnrollmentResult(isEnrolled(enrollment.getPersonId(), enrollment.getMinistryId())? ALREADY_ENROLLED: NOT_FOUND, enrollment);
+    }
+
+    /**
+     * Enrolls everyone in one statement. Rows whose person, ministry or role is not in the organization are
+     * reported NOT_FOUND, existing enrollments (and repeats within the batch) ALREADY_ENROLLED. Created rows
+     * are returned populated. Results are in the same order as the input.
+     */
+    public List<EnrollmentResult> createEnrollments(List<MinistryEnrollment> enrollments) {
+        String sql = "WITH input AS (" +
+                     "  SELECT * FROM unnest(?::int[], ?::int[], ?::int[]) WITH ORDINALITY AS t(person_id, ministry_id, role_id, idx)" +
+                     "), valid AS (" +
+                     "  SELECT i.*, row_number() OVER (PARTITION BY i.ministry_id, i.person_id ORDER BY i.idx) AS occurrence FROM input i" +
+                     "    JOIN people p ON p.id=i.person_id AND p.org_id=?" +
+                     "    JOIN ministries m ON m.id=i.ministry_id AND m.org_id=?" +
+                     "    JOIN ministry_roles r ON r.id=i.role_id AND r.ministry_id=i.ministry_id AND r.org_id=?" +
+                     "), inserted AS (" +
+                     "  INSERT INTO ministry_enrollments(person_id, ministry_id, role_id)" +
+                     "  SELECT person_id, ministry_id, role_id FROM valid WHERE occurrence=1" +
+                     "  ON CONFLICT (ministry_id, person_id) DO NOTHING" +
+                     "  RETURNING person_id, ministry_id" +
+                     ") " +
+                     "SELECT v.idx, (v.occurrence=1 AND ins.person_id IS NOT NULL) AS created FROM valid v " +
+                     "LEFT JOIN inserted ins ON ins.person_id=v.person_id AND ins.ministry_id=v.ministry_id";
+
+        int size = enrollments.size();
+        Integer[] personIds = new Integer[size];
+        Integer[] ministryIds = new Integer[size];
+        Integer[] roleIds = new Integer[size];
+        for(int i = 0; i < size; i++) {
+            personIds[i] = enrollments.get(i).getPersonId();
+            ministryIds[i] = enrollments.get(i).getMinistryId();
+            roleIds[i] = enrollments.get(i).getRoleId();
+        }
 
-                    writeCsv(output, rs);
-                } catch (SQLException | IOException e) {
-                    throw new RuntimeException("Could not retrieve relationships", e);
+        EnrollmentResult[] results = new EnrollmentResult[size];
+        int orgId = OrganizationContext.orgId();
+        try (Connection conn = connect()) {
+            List<Integer> created = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setArray(1, conn.createArrayOf("integer", personIds));
+                stmt.setArray(2, conn.createArrayOf("integer", ministryIds));
+                stmt.setArray(3, conn.createArrayOf("integer", roleIds));
+                stmt.setInt(4, orgId);
+                stmt.setInt(5, orgId);
+                stmt.setInt(6, orgId);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int i = rs.getInt("idx") - 1;
+                        if(rs.getBoolean("created"))
+                            created.add(i);
+                        else
+                            results[i] = new EnrollmentResult(ALREADY_ENROLLED, enrollments.get(i));
+                    }
                 }
             }
-        };
-    }
 
+            if(!created.isEmpty()) {
+                Map<String, MinistryEnrollment> populated = new HashMap<>();
+                for(MinistryEnrollment enrollment: populateEnrollments(conn, created.stream().map(enrollments::get).collect(toList())))
+                    populated.put(enrollment.getPersonId() + ":" + enrollment.getMinistryId(), enrollment);
+
+                for(int i: created) {
+                    MinistryEnrollment enrollment = enrollments.get(i);
+                    results[i] = new EnrollmentResult(CREATED, populated.getOrDefault(enrollment.getPersonId() + ":" + enrollment.getMinistryId(), enrollment));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not create enrollments", e);
+        }
 
-    public MinistryEnrollment populateEnrollment(MinistryEnrollment enrollment) {
-        return getOne(baseQuery().where("person_id=?", enrollment.getPersonId())
-                                 .where("e.ministry_id=?", enrollment.getMinistryId())
-                                 .where("p.id = person_id").where("m.id = e.ministry_id"));
+        for(int i = 0; i < size; i++) {
+            if(results[i] == null)
+                results[i] = new EnrollmentResult(NOT_FOUND, enrollments.get(i));
+        }
+        CatalogCaches.enrollmentsChanged(orgId);
+        return asList(results);
     }
 
-    public boolean createEnrollment(MinistryEnrollment enrollment) {
-        InsertBuilder cmd = insertInto("ministry_enrollments")
-                .value("person_id", enrollment.getPersonId())
-                .value("ministry_id", enrollment.getMinistryId())
-                .value("role_id", enrollment.getRoleId());
-        return create(cmd);
+    /**
+     * The organization's changes to ministries, roles and enrollments after the given position, oldest first.
+     * Returns null if changes after that position have already been pruned, so the reader must resync in full.
+     */
+    public MinistryChanges getChanges(long since, int limit) {
+        try (Connection conn = connect()) {
+            if(since > 0) {
+                Long oldest = OLDEST_CHANGE.one(conn, rs -> (Long) rs.getObject(1), OrganizationContext.orgId());
+                if(oldest != null && since < oldest - 1)
+                    return null;
+            }
+
+            List<MinistryChange> changes = CHANGES_SINCE.list(conn, this::processChange, OrganizationContext.orgId(), since, limit + 1);
+            boolean more = changes.size() > limit;
+            if(more)
+                changes = new ArrayList<>(changes.subList(0, limit));
+            long next = changes.isEmpty()? since: changes.get(changes.size() - 1).getPosition();
+            return new MinistryChanges(changes, next, more);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not read changes since: " + since, e);
+        }
     }
 
-    public boolean updateRole(MinistryEnrollment enrollment) {
-        UpdateBuilder cmd = update("ministry_enrollments").value("role_id", enrollment.getRoleId())
-                .with("person_id", enrollment.getPersonId())
-                .with("ministry_id", enrollment.getMinistryId());
-        return update(cmd);
+    /** Moves the member to a role of the same ministry. Returns the enrollment populated, or null if there is no such enrollment or role. */
+    public MinistryEnrollment updateRole(MinistryEnrollment enrollment) {
+        String sql = "WITH updated AS (" +
+                     "  UPDATE ministry_enrollments e SET role_id=r.id FROM ministry_roles r, ministries m" +
+                     "  WHERE e.person_id=? AND e.ministry_id=? AND r.id=? AND r.ministry_id=e.ministry_id AND r.org_id=?" +
+                     "    AND m.id=e.ministry_id AND m.org_id=?" +
+                     "  RETURNING e.*" +
+                     ") " + populated("updated");
+        int orgId = OrganizationContext.orgId();
+        return writeAndPopulate(sql, "Could not update enrollment role", enrollment.getPersonId(), enrollment.getMinistryId(), enrollment.getRoleId(), orgId, orgId);
     }
 
     public boolean deleteEnrollment(int personId, int ministryId) {
-        return delete(deleteFrom("ministry_enrollments").with("person_id", personId).with("ministry_id", ministryId));
+        int orgId = OrganizationContext.orgId();
+        try (Connection conn = connect();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM ministry_enrollments e USING ministries m " +
+                                                            "WHERE m.id=e.ministry_id AND m.org_id=? AND e.person_id=? AND e.ministry_id=?")) {
+
+            stmt.setInt(1, orgId);
+            stmt.setInt(2, personId);
+            stmt.setInt(3, ministryId);
+            boolean deleted = stmt.executeUpdate() > 0;
+            if(deleted)
+                CatalogCaches.enrollmentsChanged(orgId);
+            return deleted;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not delete enrollment of person " + personId + " in ministry " + ministryId, e);
+        }
     }
     // ----- Private -----
+    private Connection connect() throws SQLException {
+        return TimedConnections.open("EnrollmentDB", () -> getConnection());
+    }
+
+    private Connection connectForRead() throws SQLException {
+        return TimedConnections.open("EnrollmentDB", () -> ReadRouting.openForRead(() -> getConnection()));
+    }
+
+    private boolean isEnrolled(int personId, int ministryId) {
+        try (Connection conn = connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM ministry_enrollments e JOIN ministries m ON m.id=e.ministry_id " +
+                                                            "WHERE e.person_id=? AND e.ministry_id=? AND m.org_id=?")) {
+            stmt.setInt(1, personId);
+            stmt.setInt(2, ministryId);
+            stmt.setInt(3, OrganizationContext.orgId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not check enrollment of person " + personId + " in ministry " + ministryId, e);
+        }
+    }
+
+    private List<MinistryEnrollment> listEnrollments(PreparedQuery query, int id, String failure) {
+        int orgId = OrganizationContext.orgId();
+        try (Connection conn = connectForRead()) {
+            return query.list(conn, this::processRow, orgId, orgId, orgId, id);
+        } catch (SQLException e) {
+            throw new RuntimeException(failure, e);
+        }
+    }
+
+    private MinistryChange processChange(ResultSet rs) throws SQLException {
+        MinistryChange change = new MinistryChange();
+        change.setPosition(rs.getLong("position"));
+        change.setEntity(MinistryChange.Entity.valueOf(rs.getString("entity").toUpperCase()));
+        change.setOperation(MinistryChange.Operation.valueOf(rs.getString("operation")));
+        change.setMinistryId((Integer) rs.getObject("ministry_id"));
+        change.setRoleId((Integer) rs.getObject("role_id"));
+        change.setPersonId((Integer) rs.getObject("person_id"));
+        change.setChangedTime(rs.getTimestamp("changed_time").getTime());
+        return change;
+    }
+
+    private StreamingOutput streamEnrollments(final QueryBuilder query) {
+        return output -> {
+            try (Connection conn = connectForRead();
+                 JsonGenerator json = JSON.createGenerator(output)) {
+
+                json.writeStartArray();
+                CursorQuery.run(conn, query, CursorQuery.FETCH_SIZE, rs -> {
+                    while (rs.next())
+                        writeEnrollment(json, rs);
+                });
+                json.writeEndArray();
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not stream enrollments", e);
+            }
+        };
+    }
+
+    private void writeEnrollment(JsonGenerator json, ResultSet rs) throws SQLException, IOException {
+        json.writeStartObject();
+        json.writeNumberField("personId", rs.getInt("person_id"));
+        json.writeStringField("personName", rs.getString("person_name"));
+        json.writeNumberField("ministryId", rs.getInt("ministry_id"));
+        json.writeStringField("ministryName", rs.getString("ministry_name"));
+        json.writeNumberField("roleId", rs.getInt("role_id"));
+        json.writeStringField("role", rs.getString("role"));
+        json.writeEndObject();
+    }
+
+    private static String populated(String changed) {
+        return "SELECT c.*, p.name AS person_name, m.name AS ministry_name, r.name AS role FROM " + changed + " c " +
+               "JOIN people p ON p.id=c.person_id JOIN ministries m ON m.id=c.ministry_id LEFT JOIN ministry_roles r ON r.id=c.role_id";
+    }
+
+    private MinistryEnrollment writeAndPopulate(String sql, String failure, int... params) {
+        try (Connection conn = connect();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for(int i = 0; i < params.length; i++)
+                stmt.setInt(i + 1, params[i]);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                CatalogCaches.enrollmentsChanged(OrganizationContext.orgId());
+                return rs.next()? processRow(rs): null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(failure, e);
+        }
+    }
+
+    private List<MinistryEnrollment> populateEnrollments(Connection conn, List<MinistryEnrollment> enrollments) throws SQLException {
+        Integer[] personIds = enrollments.stream().map(MinistryEnrollment::getPersonId).toArray(Integer[]::new);
+        Integer[] ministryIds = enrollments.stream().map(MinistryEnrollment::getMinistryId).toArray(Integer[]::new);
+        QueryBuilder query = baseQuery().where("p.id = person_id").where("m.id = e.ministry_id")
+                .where("(e.person_id, e.ministry_id) IN (SELECT * FROM unnest(?::int[], ?::int[]))",
+                       conn.createArrayOf("integer", personIds), conn.createArrayOf("integer", ministryIds));
+        return Paging.read(conn, query, this::processRow, false).getResults();
+    }
+
     @Override
     protected MinistryEnrollment processRow(ResultSet rs) throws SQLException {
         MinistryEnrollment enrollment = new MinistryEnrollment(rs.getInt("person_id"),rs.getInt("ministry_id"), rs.getString("role"));
@@ -0,0 +1,115 @@
+package org.servantscode.ministry.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Name search ranked by match quality: prefix matches first, then by trigram similarity. Candidates are names
+ * containing the term or similar to it, both of which the pg_trgm GIN indexes serve. Without pg_trgm it falls
+ * back to an unindexed substring match.
+ */
+final class FuzzySearch {
+    private static final Logger LOG = LogManager.getLogger(FuzzySearch.class);
+
+    private static final long RECHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static volatile boolean trigramsAvailable;
+    private static volatile long trigramsChecked;
+
+    private FuzzySearch() {}
+
+    /** Reads a page of the organization's rows of the table, optionally restricted to one parent. */
+    static <T> ResultPage<T> read(Connection conn, String table, String parentColumn, int parentId, int orgId,
+                                  String term, int start, int count, Paging.RowMapper<T> mapper) throws SQLException {
+
+        boolean trigrams = trigramsAvailable(conn);
+        String like = escapeLike(term);
+
+        List<Object> params = new ArrayList<>();
+        StringBuilder filter = new StringBuilder("org_id=?");
+        params.add(orgId);
+        if(parentColumn != null) {
+            filter.append(format(" AND %s=?", parentColumn));
+            params.add(parentId);
+        }
+        if(trigrams) {
+            filter.append(" AND (name % ? OR name ILIKE ?)");
+            params.add(term);
+        } else {
+            filter.append(" AND name ILIKE ?");
+        }
+        params.add("%" + like + "%");
+
+        String sql = format("SELECT *, %s FROM %s WHERE %s ORDER BY name ILIKE ? DESC, %sname, id LIMIT ? OFFSET ?",
+                            Paging.TOTAL_COLUMN, table, filter, trigrams? "similarity(name, ?) DESC, ": "");
+        List<Object> pageParams = new ArrayList<>(params);
+        pageParams.add(like + "%");
+        if(trigrams)
+            pageParams.add(term);
+        pageParams.add(count);
+        pageParams.add(start);
+
+        ResultPage<T> page = new ResultPage<>(new ArrayList<>());
+        page.setTotalResults(0);
+        try (PreparedStatement stmt = prepare(conn, sql, pageParams);
+             ResultSet rs = stmt.executeQuery()) {
+
+            while (rs.next()) {
+                if(page.getResults().isEmpty())
+                    page.setTotalResults(rs.getInt("total_count"));
+                page.getResults().add(mapper.map(rs));
+            }
+        }
+
+        if(page.getResults().isEmpty() && start > 0) {
+            try (PreparedStatement stmt = prepare(conn, format("SELECT count(1) FROM %s WHERE %s", table, filter), params);
+                 ResultSet rs = stmt.executeQuery()) {
+                page.setTotalResults(rs.next()? rs.getInt(1): 0);
+            }
+        }
+        return page;
+    }
+
+    // ----- Private -----
+    // Once found the extension is assumed to stay; until then it is looked for again every minute, so installing
+    // it is picked up without a restart.
+    private static boolean trigramsAvailable(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        if(trigramsAvailable || now - trigramsChecked < RECHECK_MILLIS)
+            return trigramsAvailable;
+
+        boolean firstCheck = trigramsChecked == 0;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT EXISTS (SELECT 1 FROM pg_extension WHERE extname='pg_trgm')");
+             ResultSet rs = stmt.executeQuery()) {
+            trigramsAvailable = rs.next() && rs.getBoolean(1);
+        }
+        trigramsChecked = now;
+
+        if(!trigramsAvailable && firstCheck)
+            LOG.warn("pg_trgm is not installed; fuzzy name search falls back to substring matching until it is.");
+        else if(trigramsAvailable && !firstCheck)
+            LOG.info("pg_trgm is now installed; fuzzy name search uses trigram similarity.");
+        return trigramsAvailable;
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, List<Object> params) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        for(int i = 0; i < params.size(); i++)
+            stmt.setObject(i + 1, params.get(i));
+        return stmt;
+    }
+
+    private static String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,34 @@
+package org.servantscode.ministry.db;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Streams a query whose single column is a JSON document built by Postgres (json_build_object) as a JSON
+ * array. The driver hands back the text of each value as the bytes it received, so rows go to the response
+ * without being decoded, mapped to objects or serialized again.
+ */
+final class JsonRows {
+    private JsonRows() {}
+
+    static StreamingOutput stream(ConnectionSource connections, PreparedQuery query, String failure, Object... params) {
+        return output -> {
+            try (Connection conn = connections.open()) {
+                output.write('[');
+                CursorQuery.run(conn, query, CursorQuery.FETCH_SIZE, rs -> {
+                    boolean first = true;
+                    while (rs.next()) {
+                        if(!first)
+                            output.write(',');
+                        output.write(rs.getBytes(1));
+                        first = false;
+                    }
+                }, params);
+                output.write(']');
+            } catch (SQLException e) {
+                throw new RuntimeException(failure, e);
+            }
+        };
+    }
+}
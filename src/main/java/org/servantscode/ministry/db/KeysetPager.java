@@ -0,0 +1,169 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.commons.search.QueryBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import static java.lang.String.format;
+import static org.servantscode.commons.StringUtils.isEmpty;
+
+/**
+ * Seek-based paging over (sort column, id). Each page is located by the last row of the previous one, carried
+ * by the client as an opaque cursor, so the cost of a page does not depend on how deep into the results it is.
+ */
+public class KeysetPager<T> {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final String idColumn;
+    private final ToIntFunction<T> idOf;
+    private final Map<String, Column<T>> columns = new HashMap<>();
+
+    public KeysetPager(String idColumn, ToIntFunction<T> idOf) {
+        this.idColumn = idColumn;
+        this.idOf = idOf;
+    }
+
+    public KeysetPager<T> column(String field, String sql, Function<T, Object> valueOf) {
+        columns.put(field, new Column<>(sql, valueOf));
+        return this;
+    }
+
+    /** Restricts the query to the page following the cursor, ordered by sortField then id. Fetches one extra row to detect the end. */
+    public QueryBuilder seek(QueryBuilder query, String sortField, String cursor, int count) {
+        Sort sort = parseSort(sortField);
+        if(!isEmpty(cursor)) {
+            Position position = decode(cursor, sort);
+            if(sort.column == null)
+                query.where(format("%s %s ?", idColumn, sort.descending? "<": ">"), position.id);
+            else
+                seekColumn(query, sort, position);
+        }
+
+        String direction = sort.descending? " DESC": " ASC";
+        String order = sort.column == null? idColumn + direction: sort.column.sql + direction + ", " + idColumn + direction;
+        return query.sort(order).limit(count + 1);
+    }
+
+    /** Trims the look-ahead row from a result fetched through {@link #seek} and computes the cursor for the next page. */
+    public ResultPage<T> page(ResultPage<T> rows, String sortField, int count) {
+        if(rows.getResults().size() <= count)
+            return rows;
+
+        ResultPage<T> page = new ResultPage<>(rows.getResults().subList(0, count));
+        page.setTotalResults(rows.getTotalResults());
+
+        T last = page.getResults().get(count - 1);
+        Sort sort = parseSort(sortField);
+        Object value = sort.column == null? null: sort.column.valueOf.apply(last);
+        page.setNextCursor(encode(sort, value, idOf.applyAsInt(last)));
+        return page;
+    }
+
+    // ----- Private -----
+    // Postgres sorts nulls last ascending and first descending; the seek predicates follow that ordering.
+    private void seekColumn(QueryBuilder query, Sort sort, Position position) {
+        String col = sort.column.sql;
+        if(!sort.descending) {
+            if(position.value == null)
+                query.where(format("(%s IS NULL AND %s > ?)", col, idColumn), position.id);
+            else
+                query.where(format("((%s, %s) > (?, ?) OR %s IS NULL)", col, idColumn, col), position.value, position.id);
+        } else {
+            if(position.value == null)
+                query.where(format("((%s IS NULL AND %s < ?) OR %s IS NOT NULL)", col, idColumn, col), position.id);
+            else
+                query.where(format("(%s, %s) < (?, ?)", col, idColumn), position.value, position.id);
+        }
+    }
+
+    private Sort parseSort(String sortField) {
+        String[] parts = isEmpty(sortField)? new String[] {"id"}: sortField.trim().split("\\s+");
+        if(parts.length > 2)
+            throw new IllegalArgumentException("Invalid sort: " + sortField);
+
+        boolean descending = false;
+        if(parts.length == 2) {
+            if(parts[1].equalsIgnoreCase("desc"))
+                descending = true;
+            else if(!parts[1].equalsIgnoreCase("asc"))
+                throw new IllegalArgumentException("Invalid sort direction: " + sortField);
+        }
+
+        if(parts[0].equals("id"))
+            return new Sort(parts[0], null, descending);
+
+        Column<T> column = columns.get(parts[0]);
+        if(column == null)
+            throw new IllegalArgumentException("Cannot page by cursor on field: " + parts[0]);
+        return new Sort(parts[0], column, descending);
+    }
+
+    private String encode(Sort sort, Object value, int id) {
+        String type = value == null? "n": value instanceof Integer? "i": value instanceof Boolean? "b": "s";
+        String token = String.join("|", sort.field, sort.descending? "d": "a", Integer.toString(id), type, value == null? "": value.toString());
+        return ENCODER.encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Position decode(String cursor, Sort sort) {
+        String[] parts;
+        try {
+            parts = new String(DECODER.decode(cursor), StandardCharsets.UTF_8).split("\\|", 5);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+
+        if(parts.length != 5 || !parts[0].equals(sort.field) || !parts[1].equals(sort.descending? "d": "a"))
+            throw new IllegalArgumentException("Cursor does not match requested sort: " + sort.field);
+
+        try {
+            int id = Integer.parseInt(parts[2]);
+            switch (parts[3]) {
+                case "n": return new Position(null, id);
+                case "i": return new Position(Integer.parseInt(parts[4]), id);
+                case "b": return new Position(Boolean.parseBoolean(parts[4]), id);
+                case "s": return new Position(parts[4], id);
+                default: throw new IllegalArgumentException("Invalid cursor");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private static class Column<T> {
+        private final String sql;
+        private final Function<T, Object> valueOf;
+
+        private Column(String sql, Function<T, Object> valueOf) {
+            this.sql = sql;
+            this.valueOf = valueOf;
+        }
+    }
+
+    private class Sort {
+        private final String field;
+        private final Column<T> column;
+        private final boolean descending;
+
+        private Sort(String field, Column<T> column, boolean descending) {
+            this.field = field;
+            this.column = column;
+            this.descending = descending;
+        }
+    }
+
+    private static class Position {
+        private final Object value;
+        private final int id;
+
+        private Position(Object value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+}
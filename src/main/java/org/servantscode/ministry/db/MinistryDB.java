@@ -1,131 +1,294 @@
 package org.servantscode.ministry.db;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.servantscode.commons.Identity;
 import org.servantscode.commons.db.DBAccess;
 import org.servantscode.commons.db.EasyDB;
-import org.servantscode.commons.db.ReportStreamingOutput;
-import org.servantscode.commons.search.InsertBuilder;
 import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.commons.search.Search;
 import org.servantscode.commons.search.SearchParser;
-import org.servantscode.commons.search.UpdateBuilder;
 import org.servantscode.commons.security.OrganizationContext;
 import org.servantscode.ministry.Ministry;
+import org.servantscode.ministry.MinistryStats;
 import org.servantscode.ministry.rest.MinistrySvc;
 
-import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
 
 import static org.servantscode.ministry.rest.MinistrySvc.CONTACT_TYPE.CONTACTS;
 import static org.servantscode.ministry.rest.MinistrySvc.CONTACT_TYPE.LEADERS;
 
 public class MinistryDB extends EasyDB<Ministry> {
+    private static final JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    // Kept current by trigger on ministry_enrollments (schema version 6), so listing and sorting by it is a key lookup per row.
+    private static final String MEMBER_COUNT_SQL = "COALESCE((SELECT s.member_count FROM ministry_stats s WHERE s.ministry_id=ministries.id), 0)";
+    private static final String MEMBER_COUNT = MEMBER_COUNT_SQL + " AS member_count";
+    private static final KeysetPager<Ministry> KEYSET = new KeysetPager<>("id", Ministry::getId)
+            .column("name", "name", Ministry::getName)
+            .column("description", "description", Ministry::getDescription)
+            .column("member_count", MEMBER_COUNT_SQL, Ministry::getMemberCount);
+
+    private static final PreparedQuery ROSTER_STATS = PreparedQuery.register("roster_stats",
+            "SELECT m.id, m.name, COALESCE(s.member_count, 0) AS member_count, " +
+            "r.id AS role_id, r.name AS role_name, COALESCE(rs.member_count, 0) AS role_member_count " +
+            "FROM ministries m LEFT JOIN ministry_stats s ON s.ministry_id=m.id " +
+            "LEFT JOIN ministry_roles r ON r.ministry_id=m.id LEFT JOIN ministry_role_stats rs ON rs.role_id=r.id " +
+            "WHERE m.org_id=? ORDER BY m.name, m.id, r.name, r.id");
+
+    private static final PreparedQuery MINISTRY_BY_ID = PreparedQuery.register("ministry_by_id",
+            "SELECT * FROM ministries WHERE id=? AND org_id=?");
+    private static final String EMAIL_LIST = "SELECT p.email FROM people p, ministry_enrollments e, ministry_roles r " +
+                                             "WHERE p.id=e.person_id AND e.ministry_id=? AND e.role_id=r.id AND p.org_id=? AND r.org_id=?";
+    private static final PreparedQuery EMAILS_ALL = PreparedQuery.register("ministry_emails", EMAIL_LIST);
+    private static final PreparedQuery EMAILS_CONTACTS = PreparedQuery.register("ministry_contact_emails", EMAIL_LIST + " AND r.contact=true");
+    private static final PreparedQuery EMAILS_LEADERS = PreparedQuery.register("ministry_leader_emails", EMAIL_LIST + " AND r.leader=true");
+    private static final String CONTACTS_FROM = " FROM people p, ministry_enrollments e, ministry_roles r " +
+                                                "WHERE p.id=e.person_id AND e.role_id=r.id AND r.contact=true AND e.ministry_id=? AND p.org_id=? AND r.org_id=?";
+    private static final PreparedQuery CONTACTS_BY_MINISTRY = PreparedQuery.register("ministry_contacts", "SELECT p.id, p.name" + CONTACTS_FROM);
+    private static final PreparedQuery CONTACTS_JSON = PreparedQuery.register("ministry_contacts_json",
+            "SELECT json_build_object('name', p.name, 'id', p.id)" + CONTACTS_FROM);
 
     public MinistryDB() {
         super(Ministry.class, "name");
     }
 
-    public int getCount(String search) {
-        return getCount(count().from("ministries").search(searchParser.parse(search)).inOrg());
+    public ResultPage<Ministry> getMinistries(String search, String sortField, int start, int count, boolean includeTotal) {
+        Search parsed = searchParser.parse(search);
+        QueryBuilder query = (includeTotal? select("*", MEMBER_COUNT, Paging.TOTAL_COLUMN): select("*", MEMBER_COUNT))
+                .from("ministries").search(parsed).inOrg().page(sortField, start, count);
+
+        try (Connection conn = connectForRead()) {
+            ResultPage<Ministry> page = Paging.read(conn, query, this::processListedRow, includeTotal);
+            if(includeTotal && page.getResults().isEmpty())
+                page.setTotalResults(Paging.count(conn, count().from("ministries").search(parsed).inOrg()));
+            return page;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not retrieve ministries containing '" + search + "'", e);
+        }
     }
 
-    public List<Ministry> getMinistries(String search, String sortField, int start, int count) {
-        return get(selectAll().from("ministries").search(searchParser.parse(search)).inOrg().page(sortField, start, count));
+    public ResultPage<Ministry> getMinistries(String search, String sortField, String cursor, int count, boolean includeTotal) {
+        Search parsed = searchParser.parse(search);
+        QueryBuilder query = KEYSET.seek(select("*", MEMBER_COUNT).from("ministries").search(parsed).inOrg(), sortField, cursor, count);
+
+        try (Connection conn = connectForRead()) {
+            ResultPage<Ministry> page = KEYSET.page(Paging.read(conn, query, this::processListedRow, false), sortField, count);
+            if(includeTotal)
+                page.setTotalResults(Paging.count(conn, count().from("ministries").search(parsed).inOrg()));
+            return page;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not retrieve ministries containing '" + search + "'", e);
+        }
     }
 
-    public StreamingOutput getReportReader(String search, final List<String> fields) {
-        final QueryBuilder query = selectAll().from("ministries").search(searchParser.parse(search)).inOrg();
-        return new ReportStreamingOutput(fields) {
-            @Override
-            public void write(OutputStream output) throws IOException, WebApplicationException {
-                try ( Connection conn = getConnection();
-                      PreparedStatement stmt = query.prepareStatement(conn);
-                      ResultSet rs = stmt.executeQuery()) {
-
-                    writeCsv(output, rs);
-                } catch (SQLException | IOException e) {
-                    throw new RuntimeException("Could not retrieve ministries containing '" + search + "'", e);
+    /** Ministries whose names contain or resemble the term, best matches first. See {@link FuzzySearch}. */
+    public ResultPage<Ministry> searchMinistries(String term, int start, int count) {
+        try (Connection conn = connectForRead()) {
+            return FuzzySearch.read(conn, "ministries", null, 0, OrganizationContext.orgId(), term, start, count, this::processRow);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not search ministries for '" + term + "'", e);
+        }
+    }
+
+    /** Typeahead over the organization's ministry names, served from an in-memory index built on first use. */
+    public List<Identity> autocomplete(String prefix, int limit) {
+        int orgId = OrganizationContext.orgId();
+        return CatalogCaches.NAME_INDEXES.get(orgId, orgId, this::loadNameIndex).find(prefix, limit);
+    }
+
+    /** Member counts of every ministry in the organization and each of its roles, ordered by ministry name. */
+    public List<MinistryStats> getRosterStats() {
+        try (Connection conn = connectForRead();
+             PreparedStatement stmt = ROSTER_STATS.prepare(conn, OrganizationContext.orgId());
+             ResultSet rs = stmt.executeQuery()) {
+
+            List<MinistryStats> stats = new ArrayList<>();
+            MinistryStats current = null;
+            while (rs.next()) {
+                int ministryId = rs.getInt("id");
+                if(current == null || current.getMinistryId() != ministryId) {
+                    current = new MinistryStats(ministryId, rs.getString("name"), rs.getInt("member_count"));
+                    stats.add(current);
                 }
+
+                int roleId = rs.getInt("role_id");
+                if(!rs.wasNull())
+                    current.getRoles().add(new MinistryStats.RoleStats(roleId, rs.getString("role_name"), rs.getInt("role_member_count")));
             }
-        };
+            return stats;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not retrieve roster statistics", e);
+        }
+    }
+
+    public CursorReport getReportReader(String search, final List<String> fields, CursorReport.Format format) {
+        final QueryBuilder query = selectAll().from("ministries").search(searchParser.parse(search)).inOrg();
+        return new CursorReport(this::connectForRead, query, fields, format, "Could not retrieve ministries containing '" + search + "'");
     }
 
     public Ministry getMinistry(int id) {
-        return getOne(selectAll().from("ministries").withId(id).inOrg());
+        int orgId = OrganizationContext.orgId();
+        return CatalogCaches.MINISTRIES.get(orgId, id, () -> CatalogCaches.MINISTRY_READS.get(orgId, id, () -> {
+            try (Connection conn = connect()) {
+                return MINISTRY_BY_ID.one(conn, this::processRow, id, orgId);
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not get ministry by id: " + id, e);
+            }
+        }));
     }
 
     public List<String> getMinistryEmailList(int ministryId, MinistrySvc.CONTACT_TYPE contactType) {
-        QueryBuilder query = select("p.email").from("people p", "ministry_enrollments e", "ministry_roles r")
-                .where("p.id=e.person_id").where("e.ministry_id=?", ministryId).where("e.role_id=r.id");
-        if(contactType == CONTACTS)
-            query.where("r.contact=true");
-        if(contactType == LEADERS)
-            query.where("r.leader=true");
+        PreparedQuery query = contactType == CONTACTS? EMAILS_CONTACTS: contactType == LEADERS? EMAILS_LEADERS: EMAILS_ALL;
+        int orgId = OrganizationContext.orgId();
+        try (Connection conn = connectForRead()) {
+            return query.list(conn, rs -> rs.getString("email"), ministryId, orgId, orgId);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not get ministry email list by id: " + ministryId, e);
+        }
+    }
+
+    /**
+     * Writes the distinct, lower-cased addresses of the selected members of all the given ministries as a JSON
+     * array. People in several of the ministries are only listed once.
+     */
+    public StreamingOutput streamAudienceEmails(Collection<Integer> ministryIds, MinistrySvc.CONTACT_TYPE contactType) {
+        return output -> {
+            try (Connection conn = connectForRead();
+                 JsonGenerator json = JSON.createGenerator(output)) {
+
+                QueryBuilder query = select("DISTINCT lower(trim(p.email)) AS email")
+                        .from("people p", "ministry_enrollments e", "ministries m", "ministry_roles r")
+                        .where("p.id=e.person_id").where("m.id=e.ministry_id").where("e.role_id=r.id")
+                        .where("e.ministry_id = ANY(?)", conn.createArrayOf("integer", ministryIds.toArray()))
+                        .where("p.email IS NOT NULL").where("trim(p.email) <> ''")
+                        .inOrg("p.org_id").inOrg("m.org_id")
+                        .sort("email");
+                if(contactType == CONTACTS)
+                    query.where("r.contact=true");
+                if(contactType == LEADERS)
+                    query.where("r.leader=true");
 
-        try ( Connection conn = getConnection();
-              PreparedStatement stmt = query.prepareStatement(conn)) {
+                json.writeStartArray();
+                CursorQuery.run(conn, query, CursorQuery.FETCH_SIZE, rs -> {
+                    while (rs.next())
+                        json.writeString(rs.getString("email"));
+                });
+                json.writeEndArray();
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not get audience email list for ministries: " + ministryIds, e);
+            }
+        };
+    }
+
+    public List<Identity> getMinistryContactList(int ministryId) {
+        int orgId = OrganizationContext.orgId();
+        return CatalogCaches.CONTACT_READS.get(orgId, ministryId, () -> {
+            try (Connection conn = connectForRead()) {
+                return CONTACTS_BY_MINISTRY.list(conn, rs -> new Identity(rs.getString("name"), rs.getInt("id")), ministryId, orgId, orgId);
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not get ministry email list by id: " + ministryId, e);
+            }
+        });
+    }
 
-            List<String> emails = new LinkedList<>();
+    /** The same list as {@link #getMinistryContactList}, with each row's JSON built by Postgres and passed through as is. */
+    public StreamingOutput getMinistryContactListJson(int ministryId) {
+        int orgId = OrganizationContext.orgId();
+        return JsonRows.stream(this::connectForRead, CONTACTS_JSON, "Could not get ministry contact list by id: " + ministryId, ministryId, orgId, orgId);
+    }
+
+    public void create(Ministry ministry) {
+        try ( Connection conn = connect();
+              PreparedStatement stmt = conn.prepareStatement("INSERT INTO ministries(name, description, org_id) VALUES (?,?,?) RETURNING id")) {
+
+            stmt.setString(1, ministry.getName());
+            stmt.setString(2, ministry.getDescription());
+            stmt.setInt(3, OrganizationContext.orgId());
             try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next())
-                    emails.add(rs.getString("email"));
+                if(!rs.next())
+                    throw new RuntimeException("Could not create ministry: " + ministry.getName());
+                ministry.setId(rs.getInt(1));
             }
-            return emails;
         } catch (SQLException e) {
-            throw new RuntimeException("Could not get ministry email list by id: " + ministryId, e);
+            throw new RuntimeException("Could not create ministry: " + ministry.getName(), e);
         }
+        CatalogCaches.ministryChanged(OrganizationContext.orgId(), ministry.getId());
     }
 
-    public List<Identity> getMinistryContactList(int ministryId) {
-        QueryBuilder query = select("p.id", "p.name").from("people p", "ministry_enrollments e", "ministry_roles r")
-                .where("p.id=e.person_id").where("e.role_id=r.id").where("r.contact=true").where("e.ministry_id=?", ministryId);
+    public void update(Ministry ministry) {
+        try ( Connection conn = connect();
+              PreparedStatement stmt = conn.prepareStatement("UPDATE ministries SET name=?, description=? WHERE id=? AND org_id=?")) {
+
+            stmt.setString(1, ministry.getName());
+            stmt.setString(2, ministry.getDescription());
+            stmt.setInt(3, ministry.getId());
+            stmt.setInt(4, OrganizationContext.orgId());
+            if(stmt.executeUpdate() == 0)
+                throw new RuntimeException("Could not update ministry: " + ministry.getName());
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not update ministry: " + ministry.getName(), e);
+        }
+        CatalogCaches.ministryChanged(OrganizationContext.orgId(), ministry.getId());
+    }
 
-        try ( Connection conn = getConnection();
-              PreparedStatement stmt = query.prepareStatement(conn)) {
+    /** Returns the deleted ministry, or null if there was none with this id in the organization. */
+    public Ministry delete(int id) {
+        try ( Connection conn = connect();
+              PreparedStatement stmt = conn.prepareStatement("DELETE FROM ministries WHERE id=? AND org_id=? RETURNING *")) {
 
-            List<Identity> emails = new LinkedList<>();
+            stmt.setInt(1, id);
+            stmt.setInt(2, OrganizationContext.orgId());
             try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next())
-                    emails.add(new Identity(rs.getString("name"), rs.getInt("id")));
+                if(!rs.next())
+                    return null;
+
+                CatalogCaches.ministryDeleted(OrganizationContext.orgId(), id);
+                return processRow(rs);
             }
-            return emails;
         } catch (SQLException e) {
-            throw new RuntimeException("Could not get ministry email list by id: " + ministryId, e);
+            throw new RuntimeException("Could not delete ministry: " + id, e);
         }
     }
 
-    public void create(Ministry ministry) {
-        InsertBuilder cmd = insertInto("ministries")
-                .value("name", ministry.getName())
-                .value("description", ministry.getDescription())
-                .value("org_id", OrganizationContext.orgId());
-        ministry.setId(createAndReturnKey(cmd));
+    // ----- Private ------
+    private Connection connect() throws SQLException {
+        return TimedConnections.open("MinistryDB", () -> getConnection());
     }
 
-    public void update(Ministry ministry) {
-        UpdateBuilder cmd = update("ministries")
-                .value("name", ministry.getName())
-                .value("description", ministry.getDescription())
-                .withId(ministry.getId())
-                .inOrg();
-        if(!update(cmd))
-            throw new RuntimeException("Could not update ministry: " + ministry.getName());
+    private Connection connectForRead() throws SQLException {
+        return TimedConnections.open("MinistryDB", () -> ReadRouting.openForRead(() -> getConnection()));
     }
 
-    public boolean delete(Ministry ministry) {
-        return delete(deleteFrom("ministries").withId(ministry.getId()).inOrg());
+    private MinistryNameIndex loadNameIndex() {
+        QueryBuilder query = select("id", "name").from("ministries").inOrg();
+        try ( Connection conn = connect();
+              PreparedStatement stmt = query.prepareStatement(conn);
+              ResultSet rs = stmt.executeQuery()) {
+
+            List<Identity> ministries = new ArrayList<>();
+            while (rs.next())
+                ministries.add(new Identity(rs.getString("name"), rs.getInt("id")));
+            return new MinistryNameIndex(ministries);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not load ministry names", e);
+        }
+    }
+
+    private Ministry processListedRow(ResultSet rs) throws SQLException {
+        Ministry ministry = processRow(rs);
+        ministry.setMemberCount(rs.getInt("member_count"));
+        return ministry;
     }
 
-    // ----- Private ------
     @Override
     protected Ministry processRow(ResultSet rs) throws SQLException {
         Ministry ministry = new Ministry(rs.getInt("id"), rs.getString("name"));
         ministry.setDescription(rs.getString("description"));
+        ministry.setVersion(rs.getLong("row_version"));
         return ministry;
     }
 }
@@ -0,0 +1,102 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.commons.Identity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable prefix index over one organization's ministry names. Every word of a name, and the whole name, is
+ * a lower-cased key in one sorted array, so a lookup is a binary search followed by a scan of the matching run.
+ */
+public class MinistryNameIndex {
+    private final Identity[] ministries;
+    private final String[] names;
+    private final String[] keys;
+    private final int[] owners;
+
+    public MinistryNameIndex(List<Identity> ministries) {
+        // Kept in name order so scanning matches by position yields them alphabetically.
+        this.ministries = ministries.stream().sorted(Comparator.comparing((Identity m) -> normalize(m.getName())))
+                                    .toArray(Identity[]::new);
+        this.names = Arrays.stream(this.ministries).map(m -> normalize(m.getName())).toArray(String[]::new);
+
+        List<Entry> entries = new ArrayList<>();
+        for(int i = 0; i < this.ministries.length; i++) {
+            String name = names[i];
+            if(name.isEmpty())
+                continue;
+
+            Set<String> words = new LinkedHashSet<>(Arrays.asList(name.split("[^\\p{L}\\p{N}]+")));
+            words.add(name);
+            for(String word: words) {
+                if(!word.isEmpty())
+                    entries.add(new Entry(word, i));
+            }
+        }
+        entries.sort(Comparator.comparing((Entry e) -> e.key).thenComparingInt(e -> e.owner));
+
+        this.keys = new String[entries.size()];
+        this.owners = new int[entries.size()];
+        for(int i = 0; i < entries.size(); i++) {
+            keys[i] = entries.get(i).key;
+            owners[i] = entries.get(i).owner;
+        }
+    }
+
+    /** Ministries with a word, or a whole name, starting with the prefix. Whole-name matches come first, then by name. */
+    public List<Identity> find(String prefix, int limit) {
+        String key = normalize(prefix);
+        List<Identity> results = new ArrayList<>();
+        if(key.isEmpty() || limit <= 0)
+            return results;
+
+        BitSet matched = new BitSet(ministries.length);
+        for(int i = lowerBound(key); i < keys.length && keys[i].startsWith(key); i++)
+            matched.set(owners[i]);
+
+        for(int i = matched.nextSetBit(0); i >= 0 && results.size() < limit; i = matched.nextSetBit(i + 1)) {
+            if(names[i].startsWith(key))
+                results.add(ministries[i]);
+        }
+        for(int i = matched.nextSetBit(0); i >= 0 && results.size() < limit; i = matched.nextSetBit(i + 1)) {
+            if(!names[i].startsWith(key))
+                results.add(ministries[i]);
+        }
+        return results;
+    }
+
+    // ----- Private -----
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(keys[mid].compareTo(key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static String normalize(String name) {
+        return name == null? "": name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class Entry {
+        private final String key;
+        private final int owner;
+
+        private Entry(String key, int owner) {
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.commons.search.QueryBuilder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a page of results and its total on a single connection. Offset pages carry the total as a window
+ * count on every row; callers fall back to {@link #count} only when the page is empty.
+ */
+final class Paging {
+    static final String TOTAL_COLUMN = "count(1) OVER () AS total_count";
+
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private Paging() {}
+
+    static <T> ResultPage<T> read(Connection conn, QueryBuilder query, RowMapper<T> mapper, boolean windowTotal) throws SQLException {
+        try (PreparedStatement stmt = query.prepareStatement(conn);
+             ResultSet rs = stmt.executeQuery()) {
+
+            List<T> results = new ArrayList<>();
+            ResultPage<T> page = new ResultPage<>(results);
+            while (rs.next()) {
+                if(windowTotal && results.isEmpty())
+                    page.setTotalResults(rs.getInt("total_count"));
+                results.add(mapper.map(rs));
+            }
+            return page;
+        }
+    }
+
+    static int count(Connection conn, QueryBuilder query) throws SQLException {
+        try (PreparedStatement stmt = query.prepareStatement(conn);
+             ResultSet rs = stmt.executeQuery()) {
+
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
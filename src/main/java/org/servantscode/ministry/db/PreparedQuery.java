@@ -0,0 +1,102 @@
+package org.servantscode.ministry.db;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
+import org.servantscode.ministry.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-shape query whose SQL text never varies, so the driver can keep it as a named server-side prepared
+ * statement on each connection. The driver caches prepared statements per physical connection by SQL text;
+ * with the prepare threshold at 1 the first execution on a connection parses it once and every later
+ * execution there skips parsing, and after a few runs Postgres may switch to a cached generic plan.
+ *
+ * Reuse is tracked per physical connection: an execution is counted as reused when the same query already
+ * ran on that connection. The driver's statement cache (256 queries by default) is far larger than this
+ * registry, so the count only overstates reuse if the pool resets sessions with DISCARD ALL.
+ */
+final class PreparedQuery {
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+    // Physical connections, and the registered queries already prepared on each. Weak so retired connections drop out.
+    private static final Map<Object, BitSet> PREPARED = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final String sql;
+    private final int index;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    private PreparedQuery(String sql) {
+        this.sql = sql;
+        this.index = NEXT_INDEX.getAndIncrement();
+    }
+
+    static PreparedQuery register(String name, String sql) {
+        PreparedQuery query = new PreparedQuery(sql);
+        Metrics.counter("db_prepared_executions_total", "Executions of registered fixed-shape queries.", "query", name, query.executions::sum);
+        Metrics.counter("db_prepared_reused_total", "Executions that reused a statement already prepared on the connection.", "query", name, query.reused::sum);
+        return query;
+    }
+
+    /** Prepares the query on the connection with its parameters bound, in order. The caller closes the statement. */
+    PreparedStatement prepare(Connection conn, Object... params) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try {
+            if(stmt.isWrapperFor(PGStatement.class))
+                stmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+            for(int i = 0; i < params.length; i++)
+                stmt.setObject(i + 1, params[i]);
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+
+        executions.increment();
+        if(markPrepared(conn))
+            reused.increment();
+        return stmt;
+    }
+
+    <T> List<T> list(Connection conn, Paging.RowMapper<T> mapper, Object... params) throws SQLException {
+        try (PreparedStatement stmt = prepare(conn, params);
+             ResultSet rs = stmt.executeQuery()) {
+
+            List<T> results = new ArrayList<>();
+            while (rs.next())
+                results.add(mapper.map(rs));
+            return results;
+        }
+    }
+
+    <T> T one(Connection conn, Paging.RowMapper<T> mapper, Object... params) throws SQLException {
+        try (PreparedStatement stmt = prepare(conn, params);
+             ResultSet rs = stmt.executeQuery()) {
+
+            return rs.next()? mapper.map(rs): null;
+        }
+    }
+
+    // ----- Private -----
+    /** Records that the query ran on the connection's physical connection, returning whether it had already. */
+    private boolean markPrepared(Connection conn) throws SQLException {
+        Object physical = conn.isWrapperFor(PGConnection.class)? conn.unwrap(PGConnection.class): conn;
+        synchronized (PREPARED) {
+            BitSet prepared = PREPARED.computeIfAbsent(physical, k -> new BitSet());
+            if(prepared.get(index))
+                return true;
+            prepared.set(index);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.servantscode.ministry.db;
+
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which statements on this thread must finish. A bulkhead sets it to the request's timeout, so
+ * once the client has been answered with 503 its queries are cancelled by the server instead of running on
+ * and holding a pooled connection for nobody.
+ */
+public final class QueryDeadline {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private QueryDeadline() {}
+
+    /** Sets the deadline for statements on this thread, as a {@link System#nanoTime()} value. */
+    public static void set(long deadlineNanos) {
+        DEADLINE.set(deadlineNanos);
+    }
+
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Seconds left before the deadline, rounded up, for {@link java.sql.Statement#setQueryTimeout(int)};
+     * 0, meaning no limit, if none is set.
+     */
+    static int remainingSeconds() throws SQLTimeoutException {
+        Long deadline = DEADLINE.get();
+        if(deadline == null)
+            return 0;
+
+        long remaining = deadline - System.nanoTime();
+        if(remaining <= 0)
+            throw new SQLTimeoutException("Request deadline passed before the statement ran");
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toSeconds(remaining - 1) + 1);
+    }
+}
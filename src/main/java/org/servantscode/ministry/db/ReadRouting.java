@@ -0,0 +1,143 @@
+package org.servantscode.ministry.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.db.DBAccess;
+import org.servantscode.ministry.Metrics;
+import org.servantscode.ministry.ServiceConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Sends read-only queries to a streaming replica when DB_REPLICA_URL is set; everything else stays on the
+ * primary. Replicas lag, so a client that has just written passes back the WAL position returned by the write
+ * in the X-Ministry-LSN header. A read carrying a position waits briefly for the replica to replay up to it and
+ * goes to the primary if it does not, so a client always reads its own writes. Reads without a position may be
+ * as stale as the replica is. If the replica cannot be reached, reads fall back to the primary.
+ *
+ * Reads that fill the long-lived catalog caches stay on the primary, so a lagging replica cannot put a value
+ * back into a cache that a write has just invalidated. Reads carrying a position are never coalesced with
+ * others by {@link SingleFlight}, which could have been served by a replica that had not reached it.
+ */
+public final class ReadRouting extends DBAccess {
+    private static final Logger LOG = LogManager.getLogger(ReadRouting.class);
+
+    public static final String POSITION_HEADER = "X-Ministry-LSN";
+
+    private static final Pattern LSN = Pattern.compile("[0-9A-Fa-f]{1,8}/[0-9A-Fa-f]{1,8}");
+    private static final long WAIT_MILLIS = ServiceConfig.getLong("DB_REPLICA_WAIT_MILLIS", 100);
+    private static final long POLL_MILLIS = 10;
+
+    private static final HikariDataSource REPLICA = replicaPool();
+    private static final ThreadLocal<String> REQUIRED = new ThreadLocal<>();
+
+    private static final LongAdder replicaReads = new LongAdder();
+    private static final LongAdder primaryReads = new LongAdder();
+
+    static {
+        Metrics.counter("db_routed_reads_total", "Read-only connections by where they were routed.", "target", "replica", replicaReads::sum);
+        Metrics.counter("db_routed_reads_total", "Read-only connections by where they were routed.", "target", "primary", primaryReads::sum);
+    }
+
+    private ReadRouting() {}
+
+    public static boolean enabled() {
+        return REPLICA != null;
+    }
+
+    /** Sets the WAL position reads on this thread must see, or clears it. Malformed positions are ignored. */
+    public static void require(String position) {
+        if(position == null || !LSN.matcher(position.trim()).matches())
+            REQUIRED.remove();
+        else
+            REQUIRED.set(position.trim());
+    }
+
+    public static String required() {
+        return REQUIRED.get();
+    }
+
+    /** The primary's current WAL position, which covers every write committed so far; null if it cannot be read. */
+    public static String primaryPosition() {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_current_wal_lsn()::text")) {
+
+            return rs.next()? rs.getString(1): null;
+        } catch (SQLException e) {
+            LOG.warn("Could not read the primary's WAL position: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** A connection for read-only work: the replica if it has caught up to the required position, else the primary. */
+    static Connection openForRead(ConnectionSource primary) throws SQLException {
+        if(REPLICA == null)
+            return primary.open();
+
+        Connection conn = null;
+        try {
+            conn = REPLICA.getConnection();
+            String position = REQUIRED.get();
+            if(position == null || caughtUp(conn, position)) {
+                replicaReads.increment();
+                return conn;
+            }
+            conn.close();
+        } catch (SQLException e) {
+            LOG.warn("Replica unavailable; reading from the primary: " + e.getMessage());
+            if(conn != null)
+                conn.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            conn.close();
+        }
+
+        primaryReads.increment();
+        return primary.open();
+    }
+
+    // ----- Private -----
+    private static boolean caughtUp(Connection conn, String position) throws SQLException, InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT coalesce(pg_last_wal_replay_lsn() >= ?::pg_lsn, true)")) {
+            stmt.setString(1, position);
+            while(true) {
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if(rs.next() && rs.getBoolean(1))
+                        return true;
+                }
+                if(System.currentTimeMillis() + POLL_MILLIS > deadline)
+                    return false;
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+    }
+
+    private static HikariDataSource replicaPool() {
+        String url = ServiceConfig.getString("DB_REPLICA_URL", null);
+        if(url == null)
+            return null;
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("ministry-replica");
+        config.setJdbcUrl(url);
+        config.setUsername(ServiceConfig.getString("DB_REPLICA_USER", ServiceConfig.getString("DB_USER", null)));
+        config.setPassword(ServiceConfig.getString("DB_REPLICA_PASSWORD", ServiceConfig.getString("DB_PASSWORD", null)));
+        config.setMaximumPoolSize(ServiceConfig.getInt("DB_REPLICA_POOL_SIZE", 8));
+        config.setConnectionTimeout(ServiceConfig.getLong("DB_REPLICA_CONNECT_TIMEOUT_MILLIS", 1000));
+        config.setReadOnly(true);
+        // Start even if the replica is down; reads go to the primary until it is back.
+        config.setInitializationFailTimeout(-1);
+        LOG.info("Routing read-only queries to replica " + url.replaceAll("\\?.*", ""));
+        return new HikariDataSource(config);
+    }
+}
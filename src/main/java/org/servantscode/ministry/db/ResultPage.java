@@ -0,0 +1,24 @@
+package org.servantscode.ministry.db;
+
+import java.util.List;
+
+public class ResultPage<T> {
+    public static final int UNCOUNTED = -1;
+
+    private final List<T> results;
+    private int totalResults = UNCOUNTED;
+    private String nextCursor;
+
+    public ResultPage(List<T> results) {
+        this.results = results;
+    }
+
+    // ----- Accessors -----
+    public List<T> getResults() { return results; }
+
+    public int getTotalResults() { return totalResults; }
+    public void setTotalResults(int totalResults) { this.totalResults = totalResults; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
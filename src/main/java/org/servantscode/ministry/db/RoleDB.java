@@ -2,6 +2,7 @@ package org.servantscode.ministry.db;
 
 import org.servantscode.commons.db.DBAccess;
 import org.servantscode.commons.search.QueryBuilder;
+import org.servantscode.commons.search.Search;
 import org.servantscode.commons.search.SearchParser;
 import org.servantscode.commons.security.OrganizationContext;
 import org.servantscode.ministry.MinistryRole;
@@ -14,6 +15,13 @@ import static java.lang.String.format;
 import static org.servantscode.commons.StringUtils.isEmpty;
 
 public class RoleDB extends DBAccess {
+    private static final KeysetPager<MinistryRole> KEYSET = new KeysetPager<>("id", MinistryRole::getId)
+            .column("name", "name", MinistryRole::getName);
+
+    private static final PreparedQuery ROLE_BY_ID = PreparedQuery.register("role_by_id",
+            "SELECT * FROM ministry_roles WHERE id=? AND org_id=?");
+    private static final PreparedQuery ROLES_VERSION = PreparedQuery.register("roles_version",
+            "SELECT count(1), COALESCE(max(row_version), 0) FROM ministry_roles WHERE ministry_id=? AND org_id=?");
 
     private SearchParser<MinistryRole> searchParser;
 
@@ -21,47 +29,59 @@ public class RoleDB extends DBAccess {
         searchParser = new SearchParser<>(MinistryRole.class);
     }
 
-    public int getCount(int ministryId, String search) {
-        QueryBuilder query = count().from("ministry_roles").where("ministry_id=?", ministryId).search(searchParser.parse(search)).inOrg();
-//        String sql = format("SELECT count(1) from ministry_roles WHERE ministry_id=?%s", optionalWhereClause(search));
-        try ( Connection conn = getConnection();
-              PreparedStatement stmt = query.prepareStatement(conn)){
-
-            try(ResultSet rs = stmt.executeQuery()) {
-                return rs.next() ? rs.getInt(1) : 0;
+    /**
+     * Changes whenever a role of the ministry is added, changed or removed. Cached with the role lists and
+     * dropped on the same writes and notifications, so it is only read from the primary after a change.
+     */
+    public String getRolesVersion(int ministryId) {
+        int orgId = OrganizationContext.orgId();
+        return CatalogCaches.ROLE_VERSIONS.get(orgId, ministryId, () -> {
+            try ( Connection conn = connect();
+                  PreparedStatement stmt = ROLES_VERSION.prepare(conn, ministryId, orgId);
+                  ResultSet rs = stmt.executeQuery()) {
+
+                return rs.next()? rs.getInt(1) + ":" + rs.getLong(2): "0:0";
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not get role version for ministry: " + ministryId, e);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Could not get role roles with names containing " + search, e);
-        }
+        });
     }
 
-    public List<MinistryRole> getRoles(int ministryId, String search, String sortField, int start, int count) {
-        QueryBuilder query = selectAll().from("ministry_roles").where("ministry_id=?", ministryId).search(searchParser.parse(search)).inOrg()
-                .sort(sortField).limit(count).offset(start);
-//        String sql = format("SELECT * FROM ministry_roles WHERE ministry_id=?%s ORDER BY %s LIMIT ? OFFSET ?", optionalWhereClause(search), sortField);
-        try ( Connection conn = getConnection();
-              PreparedStatement stmt = query.prepareStatement(conn)) {
+    /**
+     * The version, as returned by {@link #getRolesVersion}, is part of the cache key so a listing cached
+     * before a change made on another replica is never served against a newer version.
+     */
+    public ResultPage<MinistryRole> getRoles(int ministryId, String search, String sortField, int start, int count, boolean includeTotal, String version) {
+        return CatalogCaches.ROLE_LISTS.get(OrganizationContext.orgId(),
+                CatalogCaches.roleListKey(ministryId, search, sortField, start, count, includeTotal, version),
+                () -> queryRoles(ministryId, search, sortField, start, count, includeTotal));
+    }
 
-            return processResults(stmt);
-        } catch (SQLException e) {
-            throw new RuntimeException("Could not get roles with names containing " + search, e);
-        }
+    public ResultPage<MinistryRole> getRoles(int ministryId, String search, String sortField, String cursor, int count, boolean includeTotal, String version) {
+        return CatalogCaches.ROLE_LISTS.get(OrganizationContext.orgId(),
+                CatalogCaches.roleListKey(ministryId, search, sortField, cursor, count, includeTotal, version),
+                () -> queryRoles(ministryId, search, sortField, cursor, count, includeTotal));
     }
 
-    public MinistryRole getRole(int id) {
-        QueryBuilder query = selectAll().from("ministry_roles").withId(id).inOrg();
-        try(Connection conn = getConnection();
-              PreparedStatement stmt = query.prepareStatement(conn) ) {
+    /** Roles of the ministry whose names contain or resemble the term, best matches first. See {@link FuzzySearch}. */
+    public ResultPage<MinistryRole> searchRoles(int ministryId, String term, int start, int count, String version) {
+        return CatalogCaches.ROLE_LISTS.get(OrganizationContext.orgId(),
+                CatalogCaches.roleListKey(ministryId, "fuzzy", term, start, count, version),
+                () -> {
+                    try (Connection conn = connect()) {
+                        return FuzzySearch.read(conn, "ministry_roles", "ministry_id", ministryId, OrganizationContext.orgId(), term, start, count, this::processRow);
+                    } catch (SQLException e) {
+                        throw new RuntimeException("Could not search roles for '" + term + "'", e);
+                    }
+                });
+    }
 
-            List<MinistryRole> results = processResults(stmt);
-            return results.isEmpty()? null: results.get(0);
-        } catch (SQLException e) {
-            throw new RuntimeException("Could not get role by id: " + id, e);
-        }
+    public MinistryRole getRole(int id) {
+        return CatalogCaches.ROLES.get(OrganizationContext.orgId(), id, () -> queryRole(id));
     }
 
     public void create(MinistryRole role) {
-        try (Connection conn = getConnection();
+        try (Connection conn = connect();
              PreparedStatement stmt = conn.prepareStatement("INSERT INTO ministry_roles(name, ministry_id, contact, leader, org_id) values (?,?,?,?,?)", Statement.RETURN_GENERATED_KEYS)
         ){
 
@@ -79,62 +99,120 @@ public class RoleDB extends DBAccess {
                 if (rs.next())
                     role.setId(rs.getInt(1));
             }
+            CatalogCaches.roleListChanged(OrganizationContext.orgId(), role.getMinistryId());
         } catch (SQLException e) {
             throw new RuntimeException("Could not create role: " + role.getName(), e);
         }
     }
 
-    public void update(MinistryRole role) {
-        try ( Connection conn = getConnection();
-              PreparedStatement stmt = conn.prepareStatement("UPDATE ministry_roles SET name=?, ministry_id=?, contact=?, leader=? WHERE id=? AND org_id=?")
+    /** Updates the role if it belongs to its ministry in this organization. Returns the stored role, or null. */
+    public MinistryRole update(MinistryRole role) {
+        try ( Connection conn = connect();
+              PreparedStatement stmt = conn.prepareStatement("UPDATE ministry_roles SET name=?, contact=?, leader=? WHERE id=? AND ministry_id=? AND org_id=? RETURNING *")
         ){
 
             stmt.setString(1, role.getName());
-            stmt.setInt(2, role.getMinistryId());
-            stmt.setBoolean(3, role.isContact());
-            stmt.setBoolean(4, role.isLeader());
-            stmt.setInt(5, role.getId());
+            stmt.setBoolean(2, role.isContact());
+            stmt.setBoolean(3, role.isLeader());
+            stmt.setInt(4, role.getId());
+            stmt.setInt(5, role.getMinistryId());
             stmt.setInt(6, OrganizationContext.orgId());
 
-            if(stmt.executeUpdate() == 0)
-                throw new RuntimeException("Could not update role: " + role.getName());
+            List<MinistryRole> results = processResults(stmt);
+            if(results.isEmpty())
+                return null;
 
+            CatalogCaches.roleChanged(OrganizationContext.orgId(), role.getId());
+            return results.get(0);
         } catch (SQLException e) {
             throw new RuntimeException("Could not update role: " + role.getName(), e);
         }
     }
 
-    public boolean delete(MinistryRole role) {
-        try ( Connection conn = getConnection();
-              PreparedStatement stmt = conn.prepareStatement("DELETE FROM ministry_roles WHERE id=? AND org_id=?")
+    /** Deletes the role if it belongs to the ministry in this organization. Returns the deleted role, or null. */
+    public MinistryRole delete(int ministryId, int id) {
+        try ( Connection conn = connect();
+              PreparedStatement stmt = conn.prepareStatement("DELETE FROM ministry_roles WHERE id=? AND ministry_id=? AND org_id=? RETURNING *")
         ){
 
-            stmt.setInt(1, role.getId());
-            stmt.setInt(2, OrganizationContext.orgId());
+            stmt.setInt(1, id);
+            stmt.setInt(2, ministryId);
+            stmt.setInt(3, OrganizationContext.orgId());
 
-            return stmt.executeUpdate() != 0;
+            List<MinistryRole> results = processResults(stmt);
+            if(results.isEmpty())
+                return null;
+
+            CatalogCaches.roleChanged(OrganizationContext.orgId(), id);
+            return results.get(0);
         } catch (SQLException e) {
-            throw new RuntimeException("Could not delete role: " + role.getName(), e);
+            throw new RuntimeException("Could not delete role: " + id, e);
         }
     }
 
     // ----- Private ------
+    private Connection connect() throws SQLException {
+        return TimedConnections.open("RoleDB", () -> getConnection());
+    }
+
+    private ResultPage<MinistryRole> queryRoles(int ministryId, String search, String sortField, int start, int count, boolean includeTotal) {
+        Search parsed = searchParser.parse(search);
+        QueryBuilder query = (includeTotal? select("*", Paging.TOTAL_COLUMN): selectAll())
+                .from("ministry_roles").where("ministry_id=?", ministryId).search(parsed).inOrg()
+                .sort(sortField).limit(count).offset(start);
+
+        try ( Connection conn = connect()) {
+            ResultPage<MinistryRole> page = Paging.read(conn, query, this::processRow, includeTotal);
+            if(includeTotal && page.getResults().isEmpty())
+                page.setTotalResults(Paging.count(conn, count().from("ministry_roles").where("ministry_id=?", ministryId).search(parsed).inOrg()));
+            return page;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not get roles with names containing " + search, e);
+        }
+    }
+
+    private ResultPage<MinistryRole> queryRoles(int ministryId, String search, String sortField, String cursor, int count, boolean includeTotal) {
+        Search parsed = searchParser.parse(search);
+        QueryBuilder query = KEYSET.seek(selectAll().from("ministry_roles").where("ministry_id=?", ministryId).search(parsed).inOrg(),
+                sortField, cursor, count);
+
+        try ( Connection conn = connect()) {
+            ResultPage<MinistryRole> page = KEYSET.page(Paging.read(conn, query, this::processRow, false), sortField, count);
+            if(includeTotal)
+                page.setTotalResults(Paging.count(conn, count().from("ministry_roles").where("ministry_id=?", ministryId).search(parsed).inOrg()));
+            return page;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not get roles with names containing " + search, e);
+        }
+    }
+
+    private MinistryRole queryRole(int id) {
+        try(Connection conn = connect()) {
+            return ROLE_BY_ID.one(conn, this::processRow, id, OrganizationContext.orgId());
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not get role by id: " + id, e);
+        }
+    }
+
     private List<MinistryRole> processResults(PreparedStatement stmt) throws SQLException {
         try (ResultSet rs = stmt.executeQuery()){
             List<MinistryRole> roles = new ArrayList<>();
-            while(rs.next()) {
-                MinistryRole role = new MinistryRole();
-                role.setId(rs.getInt("id"));
-                role.setName(rs.getString("name"));
-                role.setMinistryId(rs.getInt("ministry_id"));
-                role.setContact(rs.getBoolean("contact"));
-                role.setLeader(rs.getBoolean("leader"));
-                roles.add(role);
-            }
+            while(rs.next())
+                roles.add(processRow(rs));
             return roles;
         }
     }
 
+    MinistryRole processRow(ResultSet rs) throws SQLException {
+        MinistryRole role = new MinistryRole();
+        role.setId(rs.getInt("id"));
+        role.setName(rs.getString("name"));
+        role.setMinistryId(rs.getInt("ministry_id"));
+        role.setContact(rs.getBoolean("contact"));
+        role.setLeader(rs.getBoolean("leader"));
+        return role;
+    }
+
     private String optionalWhereClause(String search) {
         return !isEmpty(search)? format(" AND name ILIKE '%%%s%%'", search.replace("'", "''")) : "";
     }
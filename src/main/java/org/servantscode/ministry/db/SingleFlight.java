@@ -0,0 +1,134 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.ministry.Metrics;
+import org.servantscode.ministry.ServiceConfig;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical reads, keyed by organization and parameters, into one execution whose result
+ * all of them share. A finished result keeps being handed out for a short window, so a burst arriving just
+ * after it completes is served too; results may therefore be up to the window old, unless invalidated by a
+ * write on this replica. Failures are never shared past the callers already waiting. A finished flight is
+ * dropped as soon as its window ends, so results are never held longer than the window.
+ */
+final class SingleFlight<K, V> {
+    static final long WINDOW_MILLIS = ServiceConfig.getLong("COALESCE_WINDOW_MILLIS", 100);
+    private static final ScheduledExecutorService EXPIRY = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "single-flight-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long windowMillis;
+    private final Map<Key<K>, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    SingleFlight(String name, long windowMillis) {
+        this.windowMillis = windowMillis;
+        Metrics.counter("db_coalesced_executions_total", "Reads executed on behalf of one or more identical requests.", "flight", name, executions::sum);
+        Metrics.counter("db_coalesced_requests_total", "Requests served by another request's read.", "flight", name, collapsed::sum);
+    }
+
+    V get(int orgId, K key, Supplier<V> loader) {
+        // A read that must see a given WAL position could otherwise join one made on a replica that had not reached it.
+        if(ReadRouting.required() != null)
+            return loader.get();
+
+        Key<K> flightKey = new Key<>(orgId, key);
+        while(true) {
+            Flight<V> current = flights.get(flightKey);
+            if(current != null && current.sharedUntil >= System.currentTimeMillis()) {
+                collapsed.increment();
+                return current.await();
+            }
+
+            Flight<V> flight = new Flight<>();
+            boolean leading = current == null? flights.putIfAbsent(flightKey, flight) == null: flights.replace(flightKey, current, flight);
+            if(!leading)
+                continue;
+
+            executions.increment();
+            try {
+                V value = loader.get();
+                flight.sharedUntil = System.currentTimeMillis() + windowMillis;
+                flight.result.complete(value);
+                if(windowMillis <= 0)
+                    flights.remove(flightKey, flight);
+                else
+                    EXPIRY.schedule(() -> flights.remove(flightKey, flight), windowMillis, TimeUnit.MILLISECONDS);
+                return value;
+            } catch (Throwable t) {
+                // Errors too, or callers already waiting on the flight would block forever.
+                flights.remove(flightKey, flight);
+                flight.result.completeExceptionally(t);
+                throw t;
+            }
+        }
+    }
+
+    /** New readers start a fresh execution rather than share one that may have read before the write. */
+    void invalidate(int orgId, K key) {
+        flights.remove(new Key<>(orgId, key));
+    }
+
+    void invalidateOrg(int orgId) {
+        flights.keySet().removeIf(key -> key.orgId == orgId);
+    }
+
+    void clear() {
+        flights.clear();
+    }
+
+    // ----- Private -----
+    private static class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private volatile long sharedUntil = Long.MAX_VALUE;
+
+        private V await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if(e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if(e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    private static class Key<K> {
+        private final int orgId;
+        private final K key;
+
+        private Key(int orgId, K key) {
+            this.orgId = orgId;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key<?> other = (Key<?>) o;
+            return orgId == other.orgId && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * orgId + Objects.hashCode(key);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.servantscode.ministry.db;
+
+import org.servantscode.ministry.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Wraps pooled connections to record, per DB class, how long the pool took to hand out the connection, how long
+ * it was held and how long each statement took to execute. Only execution is timed; rows fetched afterwards
+ * through a cursor are not. Statements run under a {@link QueryDeadline} get a query timeout of the time left.
+ */
+final class TimedConnections {
+    private TimedConnections() {}
+
+    static Connection open(String source, ConnectionSource connections) throws SQLException {
+        long requested = System.nanoTime();
+        Connection conn = connections.open();
+        long acquired = System.nanoTime();
+        Metrics.connectionAcquired(source, acquired - requested);
+
+        return (Connection) Proxy.newProxyInstance(TimedConnections.class.getClassLoader(), new Class<?>[] {Connection.class},
+                new ConnectionHandler(source, conn, acquired));
+    }
+
+    // ----- Private -----
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final String source;
+        private final Connection conn;
+        private final long acquired;
+        private boolean closed;
+
+        private ConnectionHandler(String source, Connection conn, long acquired) {
+            this.source = source;
+            this.conn = conn;
+            this.acquired = acquired;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(method.getName().equals("close") && !closed) {
+                closed = true;
+                Metrics.connectionReleased(source, System.nanoTime() - acquired);
+            }
+
+            Object result = TimedConnections.invoke(conn, method, args);
+            if(result instanceof Statement) {
+                Class<?> type = method.getReturnType();
+                return Proxy.newProxyInstance(TimedConnections.class.getClassLoader(), new Class<?>[] {type},
+                        new StatementHandler(source, (Statement) result));
+            }
+            return result;
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final String source;
+        private final Statement statement;
+
+        private StatementHandler(String source, Statement statement) {
+            this.source = source;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(!method.getName().startsWith("execute"))
+                return TimedConnections.invoke(statement, method, args);
+
+            int timeout = QueryDeadline.remainingSeconds();
+            if(timeout > 0)
+                statement.setQueryTimeout(timeout);
+
+            long start = System.nanoTime();
+            try {
+                return TimedConnections.invoke(statement, method, args);
+            } finally {
+                Metrics.queryExecuted(source, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.servantscode.ministry.rest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.servantscode.commons.security.OrganizationContext;
+import org.servantscode.ministry.Metrics;
+import org.servantscode.ministry.ServiceConfig;
+
+import javax.annotation.Priority;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps one organization from starving the rest. Each organization has a token bucket and a concurrency cap per
+ * class of work (reads, writes and report exports); requests over either are answered with 429. Independently,
+ * when the bulkhead for the class has a backlog, requests from organizations that already have work of that
+ * class in flight are shed with 503 before the queue, and the connection pool behind it, fill up. An organization
+ * with nothing in flight is still admitted, so quiet tenants are not shed for a noisy one.
+ *
+ * A request holds its slot until its entity has been written, so streamed reports and exports count for as
+ * long as they are being produced.
+ */
+@Provider
+@Priority(5100)
+public class AdmissionFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+    private static final Logger LOG = LogManager.getLogger(AdmissionFilter.class);
+
+    private static final String SLOT_PROPERTY = "admission.slot";
+    private static final String CHANGE_FEED_PATH = "enrollment/changes";
+    private static final String AUDIENCE_EMAIL_PATH = "ministry/email/";
+    private static final boolean ENABLED = ServiceConfig.getBoolean("ADMISSION_CONTROL", true);
+
+    private static final Budget READS = Budget.fromConfig("reads", Bulkhead.INTERACTIVE::congested, 3000, 100, 12);
+    private static final Budget WRITES = Budget.fromConfig("writes", Bulkhead.WRITES::congested, 600, 30, 4);
+    private static final Budget EXPORTS = Budget.fromConfig("exports", Bulkhead.EXPORTS::congested, 12, 2, 1);
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        String path = requestContext.getUriInfo().getPath().replaceAll("^/+|/+$", "");
+        String method = requestContext.getMethod();
+        if(!ENABLED || method.equalsIgnoreCase("OPTIONS") || path.startsWith("metrics"))
+            return;
+
+        Budget budget = budgetFor(method, path);
+        // Long polls spend most of their time parked without a thread or connection; they take a token but no slot.
+        boolean parked = method.equalsIgnoreCase("GET") && path.equals(CHANGE_FEED_PATH);
+
+        int orgId = OrganizationContext.orgId();
+        Refusal refusal = budget.admit(orgId, !parked);
+        if(refusal != null)
+            requestContext.abortWith(refusal.toResponse());
+        else if(!parked)
+            requestContext.setProperty(SLOT_PROPERTY, budget.slot(orgId));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        // An entity is written after the filters run; aroundWriteTo releases the slot once it has been.
+        if(!responseContext.hasEntity() || requestContext.getMethod().equalsIgnoreCase("HEAD"))
+            release(requestContext.getProperty(SLOT_PROPERTY));
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        try {
+            context.proceed();
+        } finally {
+            release(context.getProperty(SLOT_PROPERTY));
+        }
+    }
+
+    // ----- Private -----
+    private static Budget budgetFor(String method, String path) {
+        if(path.endsWith("report") || path.startsWith(AUDIENCE_EMAIL_PATH))
+            return EXPORTS;
+        return method.equalsIgnoreCase("GET") || method.equalsIgnoreCase("HEAD")? READS: WRITES;
+    }
+
+    private static void release(Object slot) {
+        if(slot != null)
+            ((Slot) slot).release();
+    }
+
+    static class Budget {
+        private final String name;
+        private final BooleanSupplier congested;
+        private final double tokensPerNano;
+        private final int burst;
+        private final int concurrency;
+        private final Map<Integer, Usage> orgs = new ConcurrentHashMap<>();
+
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+
+        /** The congested check is the bulkhead's, telling when its backlog is deep enough to shed. */
+        Budget(String name, BooleanSupplier congested, int perMinute, int burst, int concurrency) {
+            this.name = name;
+            this.congested = congested;
+            this.tokensPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.burst = Math.max(burst, 1);
+            this.concurrency = concurrency;
+
+            Metrics.counter("admission_throttled_total", "Requests refused for exceeding the organization's budget.", "class", name, throttled::sum);
+            Metrics.counter("admission_shed_total", "Requests shed because the bulkhead had a backlog.", "class", name, shed::sum);
+        }
+
+        /** Takes a token, and a concurrency slot if asked, returning the refusal if either is not available. */
+        Refusal admit(int orgId, boolean takeSlot) {
+            Usage usage = usage(orgId);
+            long waitNanos = usage.take(tokensPerNano, burst);
+            if(waitNanos > 0) {
+                throttled.increment();
+                return refuse(Response.Status.TOO_MANY_REQUESTS, orgId, "is over its rate", TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+            }
+
+            if(!takeSlot)
+                return null;
+
+            int inFlight = usage.inFlight.incrementAndGet();
+            if(inFlight > concurrency) {
+                usage.inFlight.decrementAndGet();
+                throttled.increment();
+                return refuse(Response.Status.TOO_MANY_REQUESTS, orgId, "is at its concurrency limit", 1);
+            }
+            if(inFlight > 1 && congested.getAsBoolean()) {
+                usage.inFlight.decrementAndGet();
+                shed.increment();
+                return refuse(Response.Status.SERVICE_UNAVAILABLE, orgId, "was shed under backlog", 1);
+            }
+            return null;
+        }
+
+        /** The slot taken by a request just admitted, to be released when it completes. */
+        Slot slot(int orgId) {
+            return new Slot(usage(orgId));
+        }
+
+        int inFlight(int orgId) {
+            return usage(orgId).inFlight.get();
+        }
+
+        private Usage usage(int orgId) {
+            return orgs.computeIfAbsent(orgId, k -> new Usage(burst));
+        }
+
+        private Refusal refuse(Response.Status status, int orgId, String reason, long retryAfterSeconds) {
+            LOG.warn(String.format("Organization %d %s for %s; refusing request", orgId, reason, name));
+            return new Refusal(status, retryAfterSeconds);
+        }
+
+        private static Budget fromConfig(String name, BooleanSupplier congested, int perMinute, int burst, int concurrency) {
+            String prefix = "ADMISSION_" + name.toUpperCase() + "_";
+            return new Budget(name, congested,
+                    ServiceConfig.getInt(prefix + "PER_MINUTE", perMinute),
+                    ServiceConfig.getInt(prefix + "BURST", burst),
+                    ServiceConfig.getInt(prefix + "CONCURRENCY", concurrency));
+        }
+    }
+
+    static class Refusal {
+        final Response.Status status;
+        final long retryAfterSeconds;
+
+        private Refusal(Response.Status status, long retryAfterSeconds) {
+            this.status = status;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        private Response toResponse() {
+            return Response.status(status).header("Retry-After", retryAfterSeconds).build();
+        }
+    }
+
+    /** Released once only, whether by the response filter or after the entity is written. */
+    static class Slot {
+        private final Usage usage;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot(Usage usage) {
+            this.usage = usage;
+        }
+
+        void release() {
+            if(released.compareAndSet(false, true))
+                usage.inFlight.decrementAndGet();
+        }
+    }
+
+    private static class Usage {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        private Usage(int burst) {
+            this.tokens = burst;
+        }
+
+        /** Takes a token, returning 0, or how long until one is available. */
+        private synchronized long take(double tokensPerNano, int burst) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) * tokensPerNano);
+            refilled = now;
+            if(tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return tokensPerNano > 0? (long) Math.ceil((1 - tokens) / tokensPerNano): TimeUnit.MINUTES.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.servantscode.ministry.rest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.servantscode.commons.security.OrganizationContext;
+import org.servantscode.ministry.Metrics;
+import org.servantscode.ministry.ServiceConfig;
+import org.servantscode.ministry.db.QueryDeadline;
+import org.servantscode.ministry.db.ReadRouting;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool for one class of work. Requests are suspended and completed from the pool, so a burst of
+ * slow work fills only its own threads and queue instead of the container's; work that cannot be queued, or
+ * waits past the timeout, is answered with 503 and a Retry-After.
+ *
+ * A task keeps its slot until it has actually finished, not just until its client was answered. So that a
+ * timed-out task finishes promptly, its thread is interrupted when the deadline fires and its statements run
+ * under a {@link QueryDeadline}, which has the server cancel any still running at that point.
+ */
+public class Bulkhead {
+    private static final Logger LOG = LogManager.getLogger(Bulkhead.class);
+
+    public static final Bulkhead INTERACTIVE = fromConfig("interactive", 16, 64, 10);
+    public static final Bulkhead WRITES = fromConfig("writes", 8, 32, 15);
+    public static final Bulkhead EXPORTS = fromConfig("exports", 2, 4, 60);
+
+    /** Returned by a task that has handed the response on to be completed later, leaving it suspended. */
+    public static final Object PENDING = new Object();
+
+    public interface Task {
+        Object call() throws Exception;
+    }
+
+    private final String name;
+    private final int capacity;
+    private final int shedDepth;
+    private final long timeoutMillis;
+    private final boolean enabled;
+    private final ExecutorService executor;
+    // Admits running plus queued work; with virtual threads there is no executor queue to bound.
+    private final Semaphore admitted;
+    private final Semaphore running;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    Bulkhead(String name, int threads, int queue, int shedDepth, long timeoutMillis, boolean enabled, boolean virtualThreads) {
+        this.name = name;
+        this.capacity = threads + queue;
+        this.shedDepth = shedDepth;
+        this.timeoutMillis = timeoutMillis;
+        this.enabled = enabled;
+        this.admitted = new Semaphore(threads + queue);
+        this.running = new Semaphore(threads);
+
+        ExecutorService virtual = virtualThreads? virtualThreadExecutor(): null;
+        if(virtual != null) {
+            this.executor = virtual;
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(queue, 1)), r -> {
+                Thread thread = new Thread(r, String.format("bulkhead-%s-%d", name, count.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+
+        Metrics.gauge("bulkhead_active", "Tasks running in the bulkhead.", "bulkhead", name, active::get);
+        Metrics.gauge("bulkhead_queued", "Tasks waiting for a bulkhead thread.", "bulkhead", name, this::queued);
+        Metrics.counter("bulkhead_rejected_total", "Requests refused because the bulkhead queue was full.", "bulkhead", name, rejected::sum);
+        Metrics.counter("bulkhead_timeouts_total", "Requests that waited longer than the bulkhead timeout.", "bulkhead", name, timedOut::sum);
+    }
+
+    /** Completes the suspended response with the task's result, run on this bulkhead, or with 503 if it is full. */
+    public void submit(AsyncResponse response, Task task) {
+        submit(response, OrganizationContext.orgId(), task);
+    }
+
+    /** As {@link #submit(AsyncResponse, Task)}, for work resumed off the request thread, where there is no organization context. */
+    public void submit(AsyncResponse response, int orgId, Task task) {
+        if(!enabled) {
+            OrganizationContext.enableOrganization(orgId);
+            run(response, task);
+            return;
+        }
+
+        if(!admitted.tryAcquire()) {
+            rejected.increment();
+            response.resume(unavailable("busy"));
+            return;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        response.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(r -> {
+            timedOut.increment();
+            r.resume(unavailable("timed out"));
+            synchronized (worker) {
+                Thread thread = worker.get();
+                if(thread != null)
+                    thread.interrupt();
+            }
+        });
+
+        Map<String, String> logContext = ThreadContext.getImmutableContext();
+        String readPosition = ReadRouting.required();
+        try {
+            executor.execute(() -> {
+                try {
+                    running.acquire();
+                } catch (InterruptedException e) {
+                    admitted.release();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                active.incrementAndGet();
+                try {
+                    // Skip work for requests that already timed out while queued.
+                    if(response.isSuspended()) {
+                        OrganizationContext.enableOrganization(orgId);
+                        ThreadContext.putAll(logContext);
+                        ReadRouting.require(readPosition);
+                        QueryDeadline.set(deadline);
+                        worker.set(Thread.currentThread());
+                        run(response, task);
+                    }
+                } finally {
+                    // Taken under the lock so a late timeout cannot interrupt whatever this thread runs next.
+                    synchronized (worker) {
+                        worker.set(null);
+                        Thread.interrupted();
+                    }
+                    ThreadContext.clearMap();
+                    ReadRouting.require(null);
+                    QueryDeadline.clear();
+                    active.decrementAndGet();
+                    running.release();
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            rejected.increment();
+            response.resume(unavailable("busy"));
+        }
+    }
+
+    /** Whether enough work is waiting that new work should be shed before the queue, and the pool behind it, fill. */
+    boolean congested() {
+        return enabled && queued() >= shedDepth;
+    }
+
+    // ----- Private -----
+    private int queued() {
+        return capacity - admitted.availablePermits() - active.get();
+    }
+
+    private static void run(AsyncResponse response, Task task) {
+        try {
+            Object result = task.call();
+            if(result != PENDING)
+                response.resume(result);
+        } catch (Throwable t) {
+            response.resume(t);
+        }
+    }
+
+    private Response unavailable(String reason) {
+        LOG.warn(String.format("Bulkhead %s %s; refusing request", name, reason));
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).build();
+    }
+
+    private static Bulkhead fromConfig(String name, int threads, int queue, long timeoutSeconds) {
+        String prefix = "BULKHEAD_" + name.toUpperCase() + "_";
+        int queueSize = ServiceConfig.getInt(prefix + "QUEUE", queue);
+        return new Bulkhead(name,
+                ServiceConfig.getInt(prefix + "THREADS", threads),
+                queueSize,
+                ServiceConfig.getInt(prefix + "SHED_DEPTH", Math.max(queueSize / 2, 1)),
+                ServiceConfig.getLong(prefix + "TIMEOUT_SECONDS", timeoutSeconds) * 1000,
+                ServiceConfig.getBoolean("ASYNC_REQUESTS", true),
+                ServiceConfig.getBoolean("BULKHEAD_VIRTUAL_THREADS", false));
+    }
+
+    // Virtual threads need Java 21; looked up reflectively so the service still builds and runs on Java 8.
+    private ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn(String.format("Virtual threads are not available; bulkhead %s uses a platform thread pool", name));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.servantscode.ministry.rest;
+
+import org.servantscode.commons.rest.PaginatedResponse;
+
+import java.util.List;
+
+public class CursorPaginatedResponse<T> extends PaginatedResponse<T> {
+    private String nextCursor;
+
+    public CursorPaginatedResponse(int start, int count, int totalResults, List<T> results, String nextCursor) {
+        super(start, count, totalResults, results);
+        this.nextCursor = nextCursor;
+    }
+
+    // ----- Accessors -----
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
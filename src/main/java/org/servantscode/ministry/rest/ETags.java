@@ -0,0 +1,38 @@
+package org.servantscode.ministry.rest;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Strong entity tags built from row versions, so conditional requests can be answered before loading any rows.
+ * A strong tag promises identical bytes, so the parts must include anything that changes the serialization.
+ */
+final class ETags {
+    private ETags() {}
+
+    static EntityTag of(Object... parts) {
+        StringBuilder source = new StringBuilder();
+        for(Object part: parts)
+            source.append(part).append('|');
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder tag = new StringBuilder();
+            for(int i = 0; i < 16; i++)
+                tag.append(String.format("%02x", digest[i]));
+            return new EntityTag(tag.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /** Returns a 304 response if the request's If-None-Match matches the tag, otherwise null. */
+    static Response notModified(Request request, EntityTag tag) {
+        Response.ResponseBuilder builder = request.evaluatePreconditions(tag);
+        return builder == null? null: builder.tag(tag).build();
+    }
+}
@@ -0,0 +1,17 @@
+package org.servantscode.ministry.rest;
+
+import org.servantscode.ministry.Metrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+@Path("/metrics")
+public class MetricsSvc {
+    public static final String PROMETHEUS_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET @Produces(PROMETHEUS_TYPE)
+    public String getMetrics() {
+        return Metrics.scrape();
+    }
+}
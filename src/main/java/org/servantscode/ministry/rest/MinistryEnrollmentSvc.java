@@ -2,121 +2,305 @@ package org.servantscode.ministry.rest;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.servantscode.commons.rest.SCServiceBase;
+import org.servantscode.commons.security.OrganizationContext;
+import org.servantscode.ministry.EnrollmentResult;
 import org.servantscode.ministry.Ministry;
+import org.servantscode.ministry.MinistryChanges;
 import org.servantscode.ministry.MinistryEnrollment;
+import org.servantscode.ministry.ServiceConfig;
+import org.servantscode.ministry.db.ChangeFeed;
+import org.servantscode.ministry.db.CursorReport;
 import org.servantscode.ministry.db.EnrollmentDB;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Arrays.asList;
 
 @Path("/enrollment")
-public class MinistryEnrollmentSvc extends SCServiceBase {
+public class MinistryEnrollmentSvc extends MinistryServiceBase {
     private static final Logger logger = LogManager.getLogger(MinistryEnrollmentSvc.class);
 
+    private static final int MAX_BATCH_SIZE = ServiceConfig.getInt("ENROLLMENT_BATCH_LIMIT", 1000);
+    private static final int MAX_LOOKUP_SIZE = ServiceConfig.getInt("ENROLLMENT_LOOKUP_LIMIT", 500);
+    private static final boolean JSON_PASSTHROUGH = ServiceConfig.getBoolean("DB_JSON_PASSTHROUGH", false);
+    private static final int MAX_CHANGE_PAGE = ServiceConfig.getInt("CHANGE_PAGE_LIMIT", 1000);
+    private static final int MAX_CHANGE_WAIT_SECONDS = 60;
+    // Leaves time for the final read after a long poll's wait runs out.
+    private static final long CHANGE_WAIT_GRACE_MILLIS = 5000;
+
     EnrollmentDB db;
     public MinistryEnrollmentSvc() {
         db = new EnrollmentDB();
     }
 
     @GET @Path("/person/{personId}")@Produces(MediaType.APPLICATION_JSON)
-    public List<MinistryEnrollment> getMinistryEnrollments(@PathParam("personId") @DefaultValue("0") int personId) {
+    public void getMinistryEnrollments(@PathParam("personId") @DefaultValue("0") int personId,
+                                       @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                       @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.enrollment.list");
-        try {
-            logger.trace(String.format("Retrieving ministry enrollments. Person: %d", personId));
-            return db.getPersonEnrollment(personId);
-        } catch (Throwable t) {
-            logger.error("Enrollment retrieval failed:", t);
-            throw new WebApplicationException("Enrollment retrieval failed");
-        }
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                logger.trace(String.format("Retrieving ministry enrollments. Person: %d", personId));
+                if(stream)
+                    return Response.ok(db.streamPersonEnrollment(personId)).build();
+                return Response.ok(JSON_PASSTHROUGH? db.getPersonEnrollmentJson(personId): db.getPersonEnrollment(personId)).build();
+            } catch (Throwable t) {
+                logger.error("Enrollment retrieval failed:", t);
+                throw new WebApplicationException("Enrollment retrieval failed");
+            }
+        });
+    }
+
+    @POST @Path("/person/batch")
+    @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
+    public void getBatchEnrollments(List<Integer> personIds,
+                                    @Suspended AsyncResponse asyncResponse) {
+        verifyUserAccess("ministry.enrollment.list");
+
+        if(personIds == null || personIds.isEmpty())
+            throw new BadRequestException("At least one person id is required");
+
+        Set<Integer> ids = new LinkedHashSet<>(personIds);
+        if(ids.contains(null) || ids.size() > MAX_LOOKUP_SIZE)
+            throw new BadRequestException("Lookup must contain between 1 and " + MAX_LOOKUP_SIZE + " person ids");
+
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                logger.trace(String.format("Retrieving ministry enrollments. People: %d", ids.size()));
+                return db.getPersonEnrollments(ids);
+            } catch (Throwable t) {
+                logger.error("Enrollment retrieval failed:", t);
+                throw new WebApplicationException("Enrollment retrieval failed");
+            }
+        });
     }
 
     @GET @Path("/ministry/{ministryId}") @Produces(MediaType.APPLICATION_JSON)
-    public List<MinistryEnrollment> getMinistryMembership(@PathParam("ministryId") @DefaultValue("0") int ministryId) {
+    public void getMinistryMembership(@PathParam("ministryId") @DefaultValue("0") int ministryId,
+                                      @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                      @Context Request request,
+                                      @Suspended AsyncResponse asyncResponse) {
 
         verifyUserAccess("ministry.enrollment.list");
-        try {
-            logger.trace(String.format("Retrieving ministry enrollments. Ministry: %d", ministryId));
-            return db.getMinistryMembership(ministryId);
-        } catch (Throwable t) {
-            logger.error("Enrollment retrieval failed:", t);
-            throw new WebApplicationException("Enrollment retrieval failed");
-        }
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                String version = db.getMembershipVersion(ministryId);
+                // The three representations are equivalent but not byte-identical, so each has its own strong tag.
+                String representation = stream? "stream": JSON_PASSTHROUGH? "passthrough": "object";
+                EntityTag tag = ETags.of("membership", ministryId, version, representation);
+                Response notModified = ETags.notModified(request, tag);
+                if(notModified != null)
+                    return notModified;
+
+                logger.trace(String.format("Retrieving ministry enrollments. Ministry: %d", ministryId));
+                if(stream)
+                    return Response.ok(db.streamMinistryMembership(ministryId)).tag(tag).build();
+                return Response.ok(JSON_PASSTHROUGH? db.getMinistryMembershipJson(ministryId): db.getMinistryMembership(ministryId, version)).tag(tag).build();
+            } catch (Throwable t) {
+                logger.error("Enrollment retrieval failed:", t);
+                throw new WebApplicationException("Enrollment retrieval failed");
+            }
+        });
+    }
+
+    /**
+     * Changes to the organization's ministries, roles and enrollments after the since position. With wait, an
+     * empty read is held open for up to that many seconds until a change arrives. Answers 410 if changes after
+     * since have been pruned and the reader must resync from the report.
+     */
+    @GET @Path("/changes") @Produces(MediaType.APPLICATION_JSON)
+    public void getChanges(@QueryParam("since") @DefaultValue("0") long since,
+                           @QueryParam("limit") @DefaultValue("500") int limit,
+                           @QueryParam("wait") @DefaultValue("0") int waitSeconds,
+                           @Suspended AsyncResponse asyncResponse) {
+        verifyUserAccess("ministry.enrollment.list");
+
+        if(since < 0 || limit <= 0 || limit > MAX_CHANGE_PAGE)
+            throw new BadRequestException("since must not be negative and limit must be between 1 and " + MAX_CHANGE_PAGE);
+        if(waitSeconds < 0 || waitSeconds > MAX_CHANGE_WAIT_SECONDS)
+            throw new BadRequestException("wait must be between 0 and " + MAX_CHANGE_WAIT_SECONDS + " seconds");
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitSeconds);
+        pollChanges(asyncResponse, OrganizationContext.orgId(), since, limit, deadline);
     }
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
-    public MinistryEnrollment createEnrollment(MinistryEnrollment enrollment) {
+    public void createEnrollment(MinistryEnrollment enrollment,
+                                 @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.enrollment.create");
 
         if(enrollment.getRoleId() <= 0 || enrollment.getPersonId() <= 0 || enrollment.getMinistryId() <= 0)
             throw new BadRequestException();
 
-        try {
-            db.createEnrollment(enrollment);
-            logger.info(String.format("Enrolled person %d in ministry %d with role %s", enrollment.getPersonId(), enrollment.getMinistryId(), enrollment.getRole()));
-            return db.populateEnrollment(enrollment);
-        } catch (Throwable t) {
-            logger.error("Enrollment failed:", t);
-            throw new WebApplicationException("Enrollment failed");
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                EnrollmentResult result = db.createEnrollment(enrollment);
+                if(result.getStatus() == EnrollmentResult.Status.NOT_FOUND)
+                    throw new NotFoundException();
+                if(result.getStatus() == EnrollmentResult.Status.ALREADY_ENROLLED)
+                    throw new WebApplicationException("Person is already enrolled in the ministry", Response.Status.CONFLICT);
+
+                MinistryEnrollment created = result.getEnrollment();
+                logger.info(String.format("Enrolled person %d in ministry %d with role %s", created.getPersonId(), created.getMinistryId(), created.getRole()));
+                return created;
+            } catch (WebApplicationException t) {
+                throw t;
+            } catch (Throwable t) {
+                logger.error("Enrollment failed:", t);
+                throw new WebApplicationException("Enrollment failed");
+            }
+        });
+    }
+
+    @POST @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
+    public void createEnrollments(List<MinistryEnrollment> enrollments,
+                                  @Suspended AsyncResponse asyncResponse) {
+        verifyUserAccess("ministry.enrollment.create");
+
+        if(enrollments == null || enrollments.isEmpty() || enrollments.size() > MAX_BATCH_SIZE)
+            throw new BadRequestException("Batch must contain between 1 and " + MAX_BATCH_SIZE + " enrollments");
+
+        EnrollmentResult[] results = new EnrollmentResult[enrollments.size()];
+        List<MinistryEnrollment> valid = new ArrayList<>(enrollments.size());
+        List<Integer> validIndexes = new ArrayList<>(enrollments.size());
+        for(int i = 0; i < enrollments.size(); i++) {
+            MinistryEnrollment enrollment = enrollments.get(i);
+            if(enrollment == null || enrollment.getRoleId() <= 0 || enrollment.getPersonId() <= 0 || enrollment.getMinistryId() <= 0) {
+                results[i] = new EnrollmentResult(EnrollmentResult.Status.INVALID, enrollment);
+            } else {
+                valid.add(enrollment);
+                validIndexes.add(i);
+            }
         }
+
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                if(!valid.isEmpty()) {
+                    List<EnrollmentResult> created = db.createEnrollments(valid);
+                    for(int i = 0; i < created.size(); i++)
+                        results[validIndexes.get(i)] = created.get(i);
+                }
+
+                for(int i = 0; i < results.length; i++)
+                    results[i].setIndex(i);
+
+                logger.info(String.format("Processed batch of %d enrollments", enrollments.size()));
+                return asList(results);
+            } catch (Throwable t) {
+                logger.error("Batch enrollment failed:", t);
+                throw new WebApplicationException("Batch enrollment failed");
+            }
+        });
     }
 
-    @GET @Path("/report") @Produces(MediaType.TEXT_PLAIN)
-    public Response getRelationshipReport() {
+    @GET @Path("/report") @Produces({MediaType.TEXT_PLAIN, CursorReport.NDJSON_TYPE})
+    public void getRelationshipReport(@QueryParam("format") @DefaultValue("csv") String format,
+                                      @Context HttpHeaders headers,
+                                      @Suspended AsyncResponse asyncResponse) {
 
         verifyUserAccess("ministry.enrollment..list");
 
-        try {
-            logger.trace(String.format("Retrieving ministry enrollment report"));
-            List<String> EXPORTABLE_FIELDS = asList("person_id", "person_name", "ministry_id", "ministry_name", "role_id", "role");
-            return Response.ok(db.getReportReader(EXPORTABLE_FIELDS)).build();
-        } catch (Throwable t) {
-            logger.error("Retrieving people report failed:", t);
-            throw t;
-        }
+        CursorReport.Format reportFormat = ReportResponses.parseFormat(format);
+        Bulkhead.EXPORTS.submit(asyncResponse, () -> {
+            try {
+                logger.trace(String.format("Retrieving ministry enrollment report"));
+                List<String> EXPORTABLE_FIELDS = asList("person_id", "person_name", "ministry_id", "ministry_name", "role_id", "role");
+                return ReportResponses.build(db.getReportReader(EXPORTABLE_FIELDS, reportFormat), headers);
+            } catch (Throwable t) {
+                logger.error("Retrieving people report failed:", t);
+                throw t;
+            }
+        });
     }
 
     @PUT
     @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
-    public MinistryEnrollment updateRole(MinistryEnrollment enrollment) {
+    public void updateRole(MinistryEnrollment enrollment,
+                           @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.enrollment.update");
 
         if(enrollment.getRoleId() <= 0 || enrollment.getPersonId() <= 0 || enrollment.getMinistryId() <= 0)
             throw new BadRequestException();
 
-        try {
-            if(db.updateRole(enrollment)) {
-                logger.info(String.format("Updated person %d in ministry %d to role %s", enrollment.getPersonId(), enrollment.getMinistryId(), enrollment.getRole()));
-                return db.populateEnrollment(enrollment);
-            } else {
-                throw new NotFoundException();
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                MinistryEnrollment updated = db.updateRole(enrollment);
+                if(updated == null)
+                    throw new NotFoundException();
+
+                logger.info(String.format("Updated person %d in ministry %d to role %s", updated.getPersonId(), updated.getMinistryId(), updated.getRole()));
+                return updated;
+            } catch (NotFoundException t) {
+                throw t;
+            } catch (Throwable t) {
+                logger.error("Role update failed:", t);
+                throw new WebApplicationException("Role update failed");
             }
-        } catch (Throwable t) {
-            logger.error("Role update failed:", t);
-            throw new WebApplicationException("Role update failed");
-        }
+        });
     }
 
     @DELETE @Path("/ministry/{ministryId}/person/{personId}") @Consumes(MediaType.APPLICATION_JSON)
     public void deleteEnrollment(@PathParam("ministryId") int ministryId,
-                                 @PathParam("personId") int personId) {
+                                 @PathParam("personId") int personId,
+                                 @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.enrollment.delete");
         if(personId <= 0 || ministryId <= 0)
             throw new NotFoundException();
 
-        try {
-            if(!db.deleteEnrollment(personId, ministryId))
-                throw new NotFoundException();
-            logger.info(String.format("Removed person %d from ministry %d", personId, ministryId));
-        } catch (Throwable t) {
-            logger.error("De-enrollment failed:", t);
-            throw new WebApplicationException("De-enrollment failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                if(!db.deleteEnrollment(personId, ministryId))
+                    throw new NotFoundException();
+                logger.info(String.format("Removed person %d from ministry %d", personId, ministryId));
+                return null;
+            } catch (NotFoundException t) {
+                throw t;
+            } catch (Throwable t) {
+                logger.error("De-enrollment failed:", t);
+                throw new WebApplicationException("De-enrollment failed");
+            }
+        });
     }
-}
 
+    // ----- Private -----
+    // Each read runs on the bulkhead; between reads the request waits on the feed without holding a thread.
+    private void pollChanges(AsyncResponse asyncResponse, int orgId, long since, int limit, long deadline) {
+        Bulkhead.INTERACTIVE.submit(asyncResponse, orgId, () -> {
+            try {
+                long generation = ChangeFeed.generation(orgId);
+                MinistryChanges changes = db.getChanges(since, limit);
+                if(changes == null)
+                    throw new WebApplicationException("Changes since " + since + " are no longer retained", Response.Status.GONE);
+
+                long remaining = deadline - System.currentTimeMillis();
+                if(!changes.getChanges().isEmpty() || remaining <= 0)
+                    return changes;
+
+                asyncResponse.setTimeout(remaining + CHANGE_WAIT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                ChangeFeed.await(orgId, generation, remaining, () -> pollChanges(asyncResponse, orgId, since, limit, deadline));
+                return Bulkhead.PENDING;
+            } catch (WebApplicationException e) {
+                throw e;
+            } catch (Throwable t) {
+                logger.error("Change feed retrieval failed:", t);
+                throw new WebApplicationException("Change feed retrieval failed");
+            }
+        });
+    }
+}
@@ -3,16 +3,21 @@ package org.servantscode.ministry.rest;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.servantscode.commons.rest.PaginatedResponse;
-import org.servantscode.commons.rest.SCServiceBase;
 import org.servantscode.ministry.MinistryRole;
+import org.servantscode.ministry.db.ResultPage;
 import org.servantscode.ministry.db.RoleDB;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
-import java.util.List;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 @Path("/ministry/{ministryId}/role")
-public class MinistryRoleSvc extends SCServiceBase {
+public class MinistryRoleSvc extends MinistryServiceBase {
     private static final Logger LOG = LogManager.getLogger(MinistryRoleSvc.class);
 
     private final RoleDB db;
@@ -24,105 +29,142 @@ public class MinistryRoleSvc extends SCServiceBase {
     }
 
     @GET @Produces(MediaType.APPLICATION_JSON)
-    public PaginatedResponse<MinistryRole> getRoles(@QueryParam("start") @DefaultValue("0") int start,
-                                           @QueryParam("count") @DefaultValue("20") int count,
-                                           @QueryParam("sort_field") @DefaultValue("id") String sortField,
-                                           @QueryParam("search") @DefaultValue("") String nameSearch) {
+    public void getRoles(@QueryParam("start") @DefaultValue("0") int start,
+                         @QueryParam("count") @DefaultValue("20") int count,
+                         @QueryParam("sort_field") @DefaultValue("id") String sortField,
+                         @QueryParam("search") @DefaultValue("") String nameSearch,
+                         @QueryParam("cursor") String cursor,
+                         @QueryParam("include_total") @DefaultValue("true") boolean includeTotal,
+                         @QueryParam("match") @DefaultValue("exact") String match,
+                         @Context Request request,
+                         @Suspended AsyncResponse asyncResponse) {
 
         verifyUserAccess("ministry.role.list");
-        try {
-            LOG.trace(String.format("Retrieving ministry roles for ministry %d (%s, %s, page: %d; %d)", ministryId, nameSearch, sortField, start, count));
-            int totalMinistries = db.getCount(ministryId, nameSearch);
-            List<MinistryRole> results = db.getRoles(ministryId, nameSearch, sortField, start, count);
-            return new PaginatedResponse<>(start, results.size(), totalMinistries, results);
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministries failed:", t);
-            throw new WebApplicationException("Retrieving ministries failed");
-        }
+        boolean fuzzy = match.equalsIgnoreCase("fuzzy") && !nameSearch.trim().isEmpty();
+        if(fuzzy && cursor != null)
+            throw new BadRequestException("Cursor paging is not supported for fuzzy searches");
+
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                String version = db.getRolesVersion(ministryId);
+                EntityTag tag = ETags.of("roles", ministryId, version, start, count, sortField, nameSearch, cursor, includeTotal, fuzzy);
+                Response notModified = ETags.notModified(request, tag);
+                if(notModified != null)
+                    return notModified;
+
+                PaginatedResponse<MinistryRole> response;
+                if(fuzzy) {
+                    LOG.trace(String.format("Searching ministry roles for ministry %d (%s, page: %d; %d)", ministryId, nameSearch, start, count));
+                    ResultPage<MinistryRole> page = db.searchRoles(ministryId, nameSearch.trim(), start, count, version);
+                    response = new PaginatedResponse<>(start, page.getResults().size(), page.getTotalResults(), page.getResults());
+                } else if(cursor != null) {
+                    LOG.trace(String.format("Retrieving ministry roles for ministry %d (%s, %s, cursor: %s; %d)", ministryId, nameSearch, sortField, cursor, count));
+                    ResultPage<MinistryRole> page = db.getRoles(ministryId, nameSearch, sortField, cursor, count, includeTotal, version);
+                    response = new CursorPaginatedResponse<>(start, page.getResults().size(), page.getTotalResults(), page.getResults(), page.getNextCursor());
+                } else {
+                    LOG.trace(String.format("Retrieving ministry roles for ministry %d (%s, %s, page: %d; %d)", ministryId, nameSearch, sortField, start, count));
+                    ResultPage<MinistryRole> page = db.getRoles(ministryId, nameSearch, sortField, start, count, includeTotal, version);
+                    response = new PaginatedResponse<>(start, page.getResults().size(), page.getTotalResults(), page.getResults());
+                }
+                return Response.ok(response).tag(tag).build();
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministries failed:", t);
+                throw new WebApplicationException("Retrieving ministries failed");
+            }
+        });
     }
 
     @GET @Path("/{id}") @Produces(MediaType.APPLICATION_JSON)
-    public MinistryRole getRole(@PathParam("id") int id) {
+    public void getRole(@PathParam("id") int id,
+                        @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.role.read");
-        try {
-            MinistryRole role = db.getRole(id);
-            if(role == null || role.getMinistryId() != ministryId)
-                throw new NotFoundException();
-
-            return role;
-        } catch (NotFoundException t) {
-            throw t;
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministry role failed:", t);
-            throw new WebApplicationException("Retrieving ministry role failed");
-        }
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                MinistryRole role = db.getRole(id);
+                if(role == null || role.getMinistryId() != ministryId)
+                    throw new NotFoundException();
+
+                return role;
+            } catch (NotFoundException t) {
+                throw t;
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministry role failed:", t);
+                throw new WebApplicationException("Retrieving ministry role failed");
+            }
+        });
     }
 
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
-    public MinistryRole createRole(MinistryRole role) {
+    public void createRole(MinistryRole role,
+                           @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.role.create");
 
         if(role.getMinistryId() != ministryId)
             throw new BadRequestException();
 
-        try {
-            db.create(role);
-            LOG.info("Created ministry role: " + role.getName());
-            return role;
-        } catch (Throwable t) {
-            LOG.error("Creating ministry role failed:", t);
-            throw new WebApplicationException("Creating ministry role failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                db.create(role);
+                LOG.info("Created ministry role: " + role.getName());
+                return role;
+            } catch (Throwable t) {
+                LOG.error("Creating ministry role failed:", t);
+                throw new WebApplicationException("Creating ministry role failed");
+            }
+        });
     }
 
     @PUT
     @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
-    public MinistryRole updateRole(MinistryRole role) {
+    public void updateRole(MinistryRole role,
+                           @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.role.update");
 
         if(role.getMinistryId() != ministryId)
             throw new BadRequestException();
 
-        MinistryRole dbRole = db.getRole(role.getId());
-        if(dbRole.getId() != role.getId())
-            throw new NotFoundException();
-
-        try {
-            db.update(role);
-            LOG.info("Edited ministry role: " + role.getName());
-            return role;
-        } catch (Throwable t) {
-            LOG.error("Updating ministry role failed:", t);
-            throw new WebApplicationException("Updating ministry role failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                MinistryRole updated = db.update(role);
+                if(updated == null)
+                    throw new NotFoundException();
+
+                LOG.info("Edited ministry role: " + updated.getName());
+                return updated;
+            } catch (NotFoundException t) {
+                throw t;
+            } catch (Throwable t) {
+                LOG.error("Updating ministry role failed:", t);
+                throw new WebApplicationException("Updating ministry role failed");
+            }
+        });
     }
 
     @DELETE @Path("/{id}")
-    public void deleteRole(@PathParam("id") int id) {
+    public void deleteRole(@PathParam("id") int id,
+                           @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.role.delete");
         if(id <= 0)
             throw new NotFoundException();
 
-        try {
-            MinistryRole role = db.getRole(id);
-            if(role == null )
-                throw new NotFoundException();
-
-            if(role.getMinistryId() != ministryId)
-                throw new NotFoundException();
-
-            if(!db.delete(role))
-                throw new NotFoundException();
-
-            LOG.info("Deleted ministry role: " + role.getName());
-        } catch (NotFoundException t) {
-            throw t;
-        } catch (Throwable t) {
-            LOG.error("Deleting ministry role failed:", t);
-            throw new WebApplicationException("Deleting ministry role failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                MinistryRole role = db.delete(ministryId, id);
+                if(role == null)
+                    throw new NotFoundException();
+
+                LOG.info("Deleted ministry role: " + role.getName());
+                return null;
+            } catch (NotFoundException t) {
+                throw t;
+            } catch (Throwable t) {
+                LOG.error("Deleting ministry role failed:", t);
+                throw new WebApplicationException("Deleting ministry role failed");
+            }
+        });
     }
 }
-
@@ -0,0 +1,46 @@
+package org.servantscode.ministry.rest;
+
+import org.servantscode.commons.rest.SCServiceBase;
+
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Answers repeated access checks without evaluating the token again. Resources are created per request, so a
+ * permission verified once is remembered for the rest of the request; a grant is also shared across requests
+ * bearing the same token through {@link PermissionCache}. Only grants are remembered: a failed check always
+ * goes back to {@link SCServiceBase}, which rejects the request.
+ */
+public abstract class MinistryServiceBase extends SCServiceBase {
+    private static final String BEARER = "Bearer ";
+
+    @Context
+    private HttpHeaders headers;
+
+    private final Set<String> verified = new HashSet<>();
+
+    @Override
+    protected void verifyUserAccess(String permission) {
+        if(verified.contains(permission))
+            return;
+
+        String token = bearerToken();
+        if(token == null || !PermissionCache.isGranted(token, permission)) {
+            super.verifyUserAccess(permission);
+            if(token != null)
+                PermissionCache.granted(token, permission);
+        }
+        verified.add(permission);
+    }
+
+    // ----- Private -----
+    private String bearerToken() {
+        String authorization = headers == null? null: headers.getHeaderString(HttpHeaders.AUTHORIZATION);
+        if(authorization == null || !authorization.regionMatches(true, 0, BEARER, 0, BEARER.length()))
+            return null;
+        String token = authorization.substring(BEARER.length()).trim();
+        return token.isEmpty()? null: token;
+    }
+}
@@ -4,21 +4,36 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.servantscode.commons.Identity;
 import org.servantscode.commons.rest.PaginatedResponse;
-import org.servantscode.commons.rest.SCServiceBase;
 import org.servantscode.ministry.Ministry;
+import org.servantscode.ministry.ServiceConfig;
+import org.servantscode.ministry.db.CatalogCache;
+import org.servantscode.ministry.db.CatalogCaches;
+import org.servantscode.ministry.db.CursorReport;
 import org.servantscode.ministry.db.MinistryDB;
+import org.servantscode.ministry.db.ResultPage;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 @Path("/ministry")
-public class MinistrySvc extends SCServiceBase {
+public class MinistrySvc extends MinistryServiceBase {
     private static final Logger LOG = LogManager.getLogger(MinistrySvc.class);
 
 
+    private static final int MAX_AUTOCOMPLETE_RESULTS = 50;
+    private static final int MAX_AUDIENCE_MINISTRIES = ServiceConfig.getInt("EMAIL_AUDIENCE_MINISTRY_LIMIT", 200);
+    private static final boolean JSON_PASSTHROUGH = ServiceConfig.getBoolean("DB_JSON_PASSTHROUGH", false);
     private static final List<String> EXPORTABLE_FIELDS = Arrays.asList("id", "name", "description");
     public enum CONTACT_TYPE {CONTACTS, LEADERS, ALL};
 
@@ -29,119 +44,244 @@ public class MinistrySvc extends SCServiceBase {
     }
 
     @GET @Produces(MediaType.APPLICATION_JSON)
-    public PaginatedResponse<Ministry> getMinistries(@QueryParam("start") @DefaultValue("0") int start,
-                                           @QueryParam("count") @DefaultValue("100") int count,
-                                           @QueryParam("sort_field") @DefaultValue("name") String sortField,
-                                           @QueryParam("search") @DefaultValue("") String nameSearch) {
+    public void getMinistries(@QueryParam("start") @DefaultValue("0") int start,
+                              @QueryParam("count") @DefaultValue("100") int count,
+                              @QueryParam("sort_field") @DefaultValue("name") String sortField,
+                              @QueryParam("search") @DefaultValue("") String nameSearch,
+                              @QueryParam("cursor") String cursor,
+                              @QueryParam("include_total") @DefaultValue("true") boolean includeTotal,
+                              @QueryParam("match") @DefaultValue("exact") String match,
+                              @Suspended AsyncResponse asyncResponse) {
 
         verifyUserAccess("ministry.list");
-        try {
-            LOG.trace(String.format("Retrieving ministries (%s, %s, page: %d; %d)", nameSearch, sortField, start, count));
-            int totalMinistries = db.getCount(nameSearch);
-            List<Ministry> results = db.getMinistries(nameSearch, sortField, start, count);
-            return new PaginatedResponse<>(start, results.size(), totalMinistries, results);
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministries failed:", t);
-            throw new WebApplicationException("Retrieving ministries failed");
-        }
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                if(match.equalsIgnoreCase("fuzzy") && !nameSearch.trim().isEmpty()) {
+                    if(cursor != null)
+                        throw new BadRequestException("Cursor paging is not supported for fuzzy searches");
+
+                    LOG.trace(String.format("Searching ministries (%s, page: %d; %d)", nameSearch, start, count));
+                    ResultPage<Ministry> page = db.searchMinistries(nameSearch.trim(), start, count);
+                    return new PaginatedResponse<>(start, page.getResults().size(), page.getTotalResults(), page.getResults());
+                }
+
+                if(cursor != null) {
+                    LOG.trace(String.format("Retrieving ministries (%s, %s, cursor: %s; %d)", nameSearch, sortField, cursor, count));
+                    ResultPage<Ministry> page = db.getMinistries(nameSearch, sortField, cursor, count, includeTotal);
+                    return new CursorPaginatedResponse<>(start, page.getResults().size(), page.getTotalResults(), page.getResults(), page.getNextCursor());
+                }
+
+                LOG.trace(String.format("Retrieving ministries (%s, %s, page: %d; %d)", nameSearch, sortField, start, count));
+                ResultPage<Ministry> page = db.getMinistries(nameSearch, sortField, start, count, includeTotal);
+                return new PaginatedResponse<>(start, page.getResults().size(), page.getTotalResults(), page.getResults());
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            } catch (BadRequestException e) {
+                throw e;
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministries failed:", t);
+                throw new WebApplicationException("Retrieving ministries failed");
+            }
+        });
+    }
+
+    @GET @Path("/autocomplete") @Produces(MediaType.APPLICATION_JSON)
+    public void autocomplete(@QueryParam("q") @DefaultValue("") String prefix,
+                             @QueryParam("limit") @DefaultValue("10") int limit,
+                             @Suspended AsyncResponse asyncResponse) {
+        verifyUserAccess("ministry.list");
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                return db.autocomplete(prefix, Math.min(limit, MAX_AUTOCOMPLETE_RESULTS));
+            } catch (Throwable t) {
+                LOG.error("Ministry autocomplete failed:", t);
+                throw new WebApplicationException("Ministry autocomplete failed");
+            }
+        });
     }
 
     @GET @Path("/{id}/email/{contactType}") @Produces(MediaType.APPLICATION_JSON)
-    public List<String> getMinistryContacts(@PathParam("id") int ministryId,
-                                            @PathParam("contactType") CONTACT_TYPE contactType) {
+    public void getMinistryContacts(@PathParam("id") int ministryId,
+                                    @PathParam("contactType") CONTACT_TYPE contactType,
+                                    @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.enrollment.list");
         verifyUserAccess("email.send");
 
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                LOG.trace(String.format("Retrieving ministry emails (%s)", contactType));
+                return db.getMinistryEmailList(ministryId, contactType);
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministry email list failed:", t);
+                throw new WebApplicationException("Retrieving ministry emails failed");
+            }
+        });
+    }
+
+    @GET @Path("/email/{contactType}") @Produces(MediaType.APPLICATION_JSON)
+    public void getAudienceEmails(@QueryParam("ministry_ids") @DefaultValue("") String ministryIds,
+                                  @PathParam("contactType") CONTACT_TYPE contactType,
+                                  @Suspended AsyncResponse asyncResponse) {
+        verifyUserAccess("ministry.enrollment.list");
+        verifyUserAccess("email.send");
+
+        Set<Integer> ids = new LinkedHashSet<>();
         try {
-            LOG.trace(String.format("Retrieving ministry emails (%s)", contactType));
-            return db.getMinistryEmailList(ministryId, contactType);
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministry email list failed:", t);
-            throw new WebApplicationException("Retrieving ministry emails failed");
+            for(String id: ministryIds.split(",")) {
+                if(!id.trim().isEmpty())
+                    ids.add(Integer.parseInt(id.trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid ministry id list: " + ministryIds);
         }
+        if(ids.isEmpty() || ids.size() > MAX_AUDIENCE_MINISTRIES)
+            throw new BadRequestException("Audience must name between 1 and " + MAX_AUDIENCE_MINISTRIES + " ministries");
+
+        Bulkhead.EXPORTS.submit(asyncResponse, () -> {
+            try {
+                LOG.trace(String.format("Retrieving audience emails (%s, %d ministries)", contactType, ids.size()));
+                return Response.ok(db.streamAudienceEmails(ids, contactType)).build();
+            } catch (Throwable t) {
+                LOG.error("Retrieving audience email list failed:", t);
+                throw new WebApplicationException("Retrieving audience emails failed");
+            }
+        });
     }
 
     @GET @Path("/{id}/contacts") @Produces(MediaType.APPLICATION_JSON)
-    public List<Identity> getMinistryEmails(@PathParam("id") int ministryId) {
+    public void getMinistryEmails(@PathParam("id") int ministryId,
+                                  @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.enrollment.list");
 
-        try {
-            LOG.trace("Retrieving ministry contacts");
-            return db.getMinistryContactList(ministryId);
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministry contact list failed:", t);
-            throw new WebApplicationException("Retrieving ministry contact list failed.");
-        }
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                LOG.trace("Retrieving ministry contacts");
+                if(JSON_PASSTHROUGH)
+                    return Response.ok(db.getMinistryContactListJson(ministryId)).build();
+                return db.getMinistryContactList(ministryId);
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministry contact list failed:", t);
+                throw new WebApplicationException("Retrieving ministry contact list failed.");
+            }
+        });
     }
 
 
-    @GET @Path("/report") @Produces(MediaType.TEXT_PLAIN)
-    public Response getReport(@QueryParam("search") @DefaultValue("") String nameSearch) {
+    @GET @Path("/report") @Produces({MediaType.TEXT_PLAIN, CursorReport.NDJSON_TYPE})
+    public void getReport(@QueryParam("search") @DefaultValue("") String nameSearch,
+                          @QueryParam("format") @DefaultValue("csv") String format,
+                          @Context HttpHeaders headers,
+                          @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.export");
 
-        try {
-            LOG.trace(String.format("Retrieving ministry report(%s)", nameSearch));
-            return Response.ok(db.getReportReader(nameSearch, EXPORTABLE_FIELDS)).build();
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministry report failed:", t);
-            throw t;
-        }
+        CursorReport.Format reportFormat = ReportResponses.parseFormat(format);
+        Bulkhead.EXPORTS.submit(asyncResponse, () -> {
+            try {
+                LOG.trace(String.format("Retrieving ministry report(%s)", nameSearch));
+                return ReportResponses.build(db.getReportReader(nameSearch, EXPORTABLE_FIELDS, reportFormat), headers);
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministry report failed:", t);
+                throw t;
+            }
+        });
+    }
+
+    @GET @Path("/stats") @Produces(MediaType.APPLICATION_JSON)
+    public void getRosterStats(@Suspended AsyncResponse asyncResponse) {
+        verifyUserAccess("ministry.list");
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                LOG.trace("Retrieving roster statistics");
+                return db.getRosterStats();
+            } catch (Throwable t) {
+                LOG.error("Retrieving roster statistics failed:", t);
+                throw new WebApplicationException("Retrieving roster statistics failed");
+            }
+        });
+    }
+
+    @GET @Path("/cache/stats") @Produces(MediaType.APPLICATION_JSON)
+    public List<CatalogCache.CacheStats> getCacheStats() {
+        verifyUserAccess("ministry.cache.read");
+        return CatalogCaches.getStats();
     }
 
     @GET @Path("/{id}") @Produces(MediaType.APPLICATION_JSON)
-    public Ministry getMinistry(@PathParam("id") int id) {
+    public void getMinistry(@PathParam("id") int id,
+                            @Context Request request,
+                            @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.read");
-        try {
-            return db.getMinistry(id);
-        } catch (Throwable t) {
-            LOG.error("Retrieving ministry failed:", t);
-            throw new WebApplicationException("Retrieving ministry failed");
-        }
+        Bulkhead.INTERACTIVE.submit(asyncResponse, () -> {
+            try {
+                Ministry ministry = db.getMinistry(id);
+                if(ministry == null)
+                    return Response.noContent().build();
+
+                EntityTag tag = ETags.of("ministry", id, ministry.getVersion());
+                Response notModified = ETags.notModified(request, tag);
+                return notModified != null? notModified: Response.ok(ministry).tag(tag).build();
+            } catch (Throwable t) {
+                LOG.error("Retrieving ministry failed:", t);
+                throw new WebApplicationException("Retrieving ministry failed");
+            }
+        });
     }
 
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
-    public Ministry createMinistry(Ministry ministry) {
+    public void createMinistry(Ministry ministry,
+                               @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.create");
-        try {
-            db.create(ministry);
-            LOG.info("Created ministry: " + ministry.getName());
-            return ministry;
-        } catch (Throwable t) {
-            LOG.error("Creating ministry failed:", t);
-            throw new WebApplicationException("Creating ministry failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                db.create(ministry);
+                LOG.info("Created ministry: " + ministry.getName());
+                return ministry;
+            } catch (Throwable t) {
+                LOG.error("Creating ministry failed:", t);
+                throw new WebApplicationException("Creating ministry failed");
+            }
+        });
     }
 
     @PUT
     @Consumes(MediaType.APPLICATION_JSON) @Produces(MediaType.APPLICATION_JSON)
-    public Ministry updateMinistry(Ministry ministry) {
+    public void updateMinistry(Ministry ministry,
+                               @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.update");
-        try {
-            db.update(ministry);
-            LOG.info("Edited ministry: " + ministry.getName());
-            return ministry;
-        } catch (Throwable t) {
-            LOG.error("Updating ministry failed:", t);
-            throw new WebApplicationException("Updating ministry failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                db.update(ministry);
+                LOG.info("Edited ministry: " + ministry.getName());
+                return ministry;
+            } catch (Throwable t) {
+                LOG.error("Updating ministry failed:", t);
+                throw new WebApplicationException("Updating ministry failed");
+            }
+        });
     }
 
     @DELETE @Path("/{id}")
-    public void deleteMinistry(@PathParam("id") int id) {
+    public void deleteMinistry(@PathParam("id") int id,
+                               @Suspended AsyncResponse asyncResponse) {
         verifyUserAccess("ministry.delete");
         if(id <= 0)
             throw new NotFoundException();
-        try {
-            Ministry ministry = db.getMinistry(id);
-            if(ministry == null || !db.delete(ministry))
-                throw new NotFoundException();
-            LOG.info("Deleted ministry: " + ministry.getName());
-        } catch (Throwable t) {
-            LOG.error("Deleting ministry failed:", t);
-            throw new WebApplicationException("Deleting ministry failed");
-        }
+        Bulkhead.WRITES.submit(asyncResponse, () -> {
+            try {
+                Ministry ministry = db.delete(id);
+                if(ministry == null)
+                    throw new NotFoundException();
+                LOG.info("Deleted ministry: " + ministry.getName());
+                return null;
+            } catch (NotFoundException t) {
+                throw t;
+            } catch (Throwable t) {
+                LOG.error("Deleting ministry failed:", t);
+                throw new WebApplicationException("Deleting ministry failed");
+            }
+        });
     }
 }
 
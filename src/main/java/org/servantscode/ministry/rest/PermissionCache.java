@@ -0,0 +1,113 @@
+package org.servantscode.ministry.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.servantscode.commons.security.OrganizationContext;
+import org.servantscode.ministry.Metrics;
+import org.servantscode.ministry.ServiceConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Permissions already granted to a bearer token in an organization. Entries are keyed by a digest of the whole
+ * token rather than its signature segment alone, so a token with a swapped payload never matches one that was
+ * verified. Only grants are kept, and only until the token's exp or the configured TTL, whichever is sooner, so
+ * a revoked permission stops being honored within the TTL and a denial is always checked again. Tokens without
+ * a readable exp are never cached.
+ */
+final class PermissionCache {
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(ServiceConfig.getLong("PERMISSION_CACHE_SECONDS", 60));
+    private static final int MAX_TOKENS = ServiceConfig.getInt("PERMISSION_CACHE_SIZE", 10000);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<String, Grants> TOKENS = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    static {
+        Metrics.counter("permission_checks_total", "Access checks by how they were answered.", "result", "cached", hits::sum);
+        Metrics.counter("permission_checks_total", "Access checks by how they were answered.", "result", "verified", misses::sum);
+    }
+
+    private PermissionCache() {}
+
+    static boolean isGranted(String token, String permission) {
+        String key = key(token);
+        Grants grants = key == null? null: TOKENS.get(key);
+        boolean granted = grants != null && grants.expires > System.currentTimeMillis() && grants.permissions.contains(permission);
+        (granted? hits: misses).increment();
+        return granted;
+    }
+
+    /** Records a permission the token was just verified to hold. */
+    static void granted(String token, String permission) {
+        String key = key(token);
+        if(TTL_MILLIS <= 0 || key == null)
+            return;
+
+        Grants grants = TOKENS.get(key);
+        if(grants == null || grants.expires <= System.currentTimeMillis()) {
+            long exp = expiry(token);
+            if(exp <= System.currentTimeMillis())
+                return;
+
+            if(TOKENS.size() >= MAX_TOKENS)
+                sweep();
+            grants = new Grants(Math.min(exp, System.currentTimeMillis() + TTL_MILLIS));
+            TOKENS.put(key, grants);
+        }
+        grants.permissions.add(permission);
+    }
+
+    // ----- Private -----
+    /** The organization and a digest of the token; null for anything that is not a signed JWT. */
+    private static String key(String token) {
+        if(token.split("\\.", -1).length != 3 || token.endsWith("."))
+            return null;
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return OrganizationContext.orgId() + ":" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /** The token's exp in millis, read without verification since the token was just verified; 0 if absent. */
+    private static long expiry(String token) {
+        String[] parts = token.split("\\.");
+        try {
+            JsonNode claims = MAPPER.readTree(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+            JsonNode exp = claims.get("exp");
+            return exp != null && exp.canConvertToLong()? TimeUnit.SECONDS.toMillis(exp.asLong()): 0;
+        } catch (IOException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static void sweep() {
+        long now = System.currentTimeMillis();
+        TOKENS.values().removeIf(grants -> grants.expires <= now);
+        if(TOKENS.size() >= MAX_TOKENS)
+            TOKENS.clear();
+    }
+
+    private static class Grants {
+        private final long expires;
+        private final Set<String> permissions = ConcurrentHashMap.newKeySet();
+
+        private Grants(long expires) {
+            this.expires = expires;
+        }
+    }
+}
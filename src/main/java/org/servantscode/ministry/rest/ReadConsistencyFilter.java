@@ -0,0 +1,42 @@
+package org.servantscode.ministry.rest;
+
+import org.servantscode.ministry.db.ReadRouting;
+
+import javax.annotation.Priority;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Carries the read-your-writes position between client and {@link ReadRouting}. A successful write is answered
+ * with the primary's WAL position in the X-Ministry-LSN header; a request sending it back has its reads served
+ * by a replica only once the replica has replayed that far. Does nothing unless a replica is configured.
+ */
+@Provider
+@Priority(5200)
+public class ReadConsistencyFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        ReadRouting.require(requestContext.getHeaderString(ReadRouting.POSITION_HEADER));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if(ReadRouting.enabled() && !isRead(requestContext.getMethod())
+                && responseContext.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+            String position = ReadRouting.primaryPosition();
+            if(position != null)
+                responseContext.getHeaders().putSingle(ReadRouting.POSITION_HEADER, position);
+        }
+        ReadRouting.require(null);
+    }
+
+    // ----- Private -----
+    private static boolean isRead(String method) {
+        return method.equalsIgnoreCase("GET") || method.equalsIgnoreCase("HEAD") || method.equalsIgnoreCase("OPTIONS");
+    }
+}
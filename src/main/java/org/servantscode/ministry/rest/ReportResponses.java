@@ -0,0 +1,60 @@
+package org.servantscode.ministry.rest;
+
+import org.servantscode.ministry.db.CursorReport;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.zip.GZIPOutputStream;
+
+/** Builds report responses in the requested format, gzipped for clients that send Accept-Encoding: gzip. */
+final class ReportResponses {
+    private static final int BUFFER_SIZE = 8192;
+
+    private ReportResponses() {}
+
+    static CursorReport.Format parseFormat(String format) {
+        try {
+            return CursorReport.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown report format: " + format);
+        }
+    }
+
+    static Response build(CursorReport report, HttpHeaders headers) {
+        String type = report.getFormat() == CursorReport.Format.NDJSON? CursorReport.NDJSON_TYPE: MediaType.TEXT_PLAIN;
+        if(!acceptsGzip(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING)))
+            return Response.ok(report, type).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+
+        StreamingOutput compressed = output -> {
+            GZIPOutputStream gzip = new GZIPOutputStream(output, BUFFER_SIZE);
+            report.write(gzip);
+            gzip.finish();
+        };
+        return Response.ok(compressed, type)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    // ----- Private -----
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding == null)
+            return false;
+
+        for(String coding: acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if(!parts[0].trim().equalsIgnoreCase("gzip"))
+                continue;
+
+            for(int i = 1; i < parts.length; i++) {
+                if(parts[i].replace(" ", "").matches("q=0(\\.0*)?"))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package org.servantscode.ministry.rest;
+
+import org.servantscode.ministry.Metrics;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Times every request from before resource matching until its response headers are ready, by route. Streamed
+ * entities are written after this point, so for those the latency is time to first byte. Routes are labelled
+ * by resource class and method name, so resource method names must be unique within their class.
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.USER - 1000)
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    private static final String START_PROPERTY = "metrics.start";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+        Metrics.requestStarted();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object start = requestContext.getProperty(START_PROPERTY);
+        if(start == null)
+            return;
+
+        String route = resourceInfo == null || resourceInfo.getResourceMethod() == null? "unmatched":
+                resourceInfo.getResourceClass().getSimpleName() + "." + resourceInfo.getResourceMethod().getName();
+        Metrics.requestFinished(requestContext.getMethod(), route, responseContext.getStatus(), System.nanoTime() - (Long) start);
+    }
+}
@@ -0,0 +1,197 @@
+package org.servantscode.ministry.db;
+
+import org.junit.Test;
+import org.servantscode.commons.search.QueryBuilder;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeysetPagerTest {
+    private final KeysetPager<Row> pager = new KeysetPager<Row>("id", row -> row.id)
+            .column("name", "name", row -> row.name)
+            .column("rank", "rank", row -> row.rank)
+            .column("leader", "leader", row -> row.leader);
+
+    @Test
+    public void pageTrimsTheLookAheadRowAndPointsPastTheLastRow() throws SQLException {
+        ResultPage<Row> page = pager.page(rows(new Row(3, "Choir"), new Row(7, "Lectors"), new Row(9, "Youth")), "name", 2);
+
+        assertEquals(2, page.getResults().size());
+        assertNotNull(page.getNextCursor());
+
+        Captured next = capture(pager.seek(new QueryBuilder(), "name", page.getNextCursor(), 2));
+        assertTrue(next.sql, next.sql.contains("((name, id) > (?, ?) OR name IS NULL)"));
+        assertTrue(next.values.containsAll(Arrays.asList("Lectors", 7)));
+    }
+
+    @Test
+    public void lastPageHasNoCursor() {
+        ResultPage<Row> page = pager.page(rows(new Row(3, "Choir"), new Row(7, "Lectors")), "name", 2);
+
+        assertEquals(2, page.getResults().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void cursorKeepsTheValueType() throws SQLException {
+        String intCursor = pager.page(rows(new Row(1, "A").rank(5), new Row(2, "B").rank(6)), "rank desc", 1).getNextCursor();
+        Captured ints = capture(pager.seek(new QueryBuilder(), "rank desc", intCursor, 1));
+        assertTrue(ints.sql, ints.sql.contains("(rank, id) < (?, ?)"));
+        assertTrue(ints.values.containsAll(Arrays.asList(5, 1)));
+
+        String boolCursor = pager.page(rows(new Row(1, "A").leader(true), new Row(2, "B")), "leader", 1).getNextCursor();
+        assertTrue(capture(pager.seek(new QueryBuilder(), "leader", boolCursor, 1)).values.contains(Boolean.TRUE));
+    }
+
+    @Test
+    public void stringValuesMayContainTheSeparator() throws SQLException {
+        String cursor = pager.page(rows(new Row(4, "Bible | Study"), new Row(5, "Choir")), "name", 1).getNextCursor();
+
+        assertTrue(capture(pager.seek(new QueryBuilder(), "name", cursor, 1)).values.contains("Bible | Study"));
+    }
+
+    @Test
+    public void idSortSeeksOnIdAlone() throws SQLException {
+        String cursor = pager.page(rows(new Row(4, "A"), new Row(5, "B")), null, 1).getNextCursor();
+
+        Captured asc = capture(pager.seek(new QueryBuilder(), null, cursor, 1));
+        assertTrue(asc.sql, asc.sql.contains("id > ?"));
+        assertTrue(asc.values.contains(4));
+
+        String descCursor = pager.page(rows(new Row(5, "B"), new Row(4, "A")), "id desc", 1).getNextCursor();
+        assertTrue(capture(pager.seek(new QueryBuilder(), "id desc", descCursor, 1)).sql.contains("id < ?"));
+    }
+
+    @Test
+    public void nullSortValueSeeksWithinTheNulls() throws SQLException {
+        String cursor = pager.page(rows(new Row(8, null), new Row(9, null)), "name", 1).getNextCursor();
+
+        Captured asc = capture(pager.seek(new QueryBuilder(), "name", cursor, 1));
+        assertTrue(asc.sql, asc.sql.contains("(name IS NULL AND id > ?)"));
+        assertTrue(asc.values.contains(8));
+        assertFalse(asc.values.contains(null));
+    }
+
+    @Test
+    public void nullSortValueDescendingSeeksPastTheNulls() throws SQLException {
+        String cursor = pager.page(rows(new Row(8, null), new Row(3, "Choir")), "name desc", 1).getNextCursor();
+
+        Captured desc = capture(pager.seek(new QueryBuilder(), "name desc", cursor, 1));
+        assertTrue(desc.sql, desc.sql.contains("((name IS NULL AND id < ?) OR name IS NOT NULL)"));
+        assertTrue(desc.values.contains(8));
+        assertFalse(desc.values.contains(null));
+    }
+
+    @Test
+    public void garbageCursorIsRejected() {
+        assertRejected("name", "not a cursor!");
+        assertRejected("name", encode("name|a"));
+    }
+
+    @Test
+    public void cursorForAnotherSortIsRejected() {
+        String cursor = pager.page(rows(new Row(3, "Choir"), new Row(7, "Lectors")), "name", 1).getNextCursor();
+
+        assertRejected("rank", cursor);
+        assertRejected("name desc", cursor);
+        assertRejected("id", cursor);
+    }
+
+    @Test
+    public void tamperedCursorIsRejected() {
+        assertRejected("name", encode("name|a|seven|s|Choir"));
+        assertRejected("rank", encode("rank|a|7|i|five"));
+        assertRejected("name", encode("name|a|7|x|Choir"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSortFieldIsRejected() {
+        pager.seek(new QueryBuilder(), "description", null, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSortDirectionIsRejected() {
+        pager.seek(new QueryBuilder(), "name sideways", null, 10);
+    }
+
+    // ----- Private -----
+    private void assertRejected(String sort, String cursor) {
+        try {
+            pager.seek(new QueryBuilder(), sort, cursor, 10);
+            fail("Cursor accepted for " + sort + ": " + cursor);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static String encode(String token) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ResultPage<Row> rows(Row... rows) {
+        ResultPage<Row> page = new ResultPage<>(Arrays.asList(rows));
+        page.setTotalResults(rows.length);
+        return page;
+    }
+
+    /** Renders the query against a stub connection, recording its SQL and bound values. */
+    private static Captured capture(QueryBuilder query) throws SQLException {
+        Captured captured = new Captured();
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                    if(method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+                        captured.values.add(args[1]);
+                    return method.getReturnType() == boolean.class? false: null;
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if(!method.getName().equals("prepareStatement"))
+                        return null;
+                    captured.sql = (String) args[0];
+                    return statement;
+                });
+        query.prepareStatement(connection);
+        return captured;
+    }
+
+    private static class Captured {
+        private String sql;
+        private final List<Object> values = new ArrayList<>();
+    }
+
+    private static class Row {
+        private final int id;
+        private final String name;
+        private Integer rank;
+        private Boolean leader;
+
+        private Row(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        private Row rank(int rank) {
+            this.rank = rank;
+            return this;
+        }
+
+        private Row leader(boolean leader) {
+            this.leader = leader;
+            return this;
+        }
+    }
+}
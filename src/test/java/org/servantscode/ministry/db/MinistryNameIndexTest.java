@@ -0,0 +1,93 @@
+package org.servantscode.ministry.db;
+
+import org.junit.Test;
+import org.servantscode.commons.Identity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MinistryNameIndexTest {
+    private final MinistryNameIndex index = new MinistryNameIndex(Arrays.asList(
+            new Identity("Youth Ministry", 1),
+            new Identity("Choir", 2),
+            new Identity("Adult Choir", 3),
+            new Identity("Bible Study", 4),
+            new Identity("St. Vincent de Paul", 5),
+            new Identity("Children's Choir", 6),
+            new Identity("Lectors", 7)));
+
+    @Test
+    public void matchesTheStartOfAName() {
+        assertEquals(Collections.singletonList("Youth Ministry"), names(index.find("you", 10)));
+    }
+
+    @Test
+    public void matchesTheStartOfAnyWord() {
+        assertEquals(Collections.singletonList("Bible Study"), names(index.find("stu", 10)));
+        assertEquals(Collections.singletonList("St. Vincent de Paul"), names(index.find("vinc", 10)));
+    }
+
+    @Test
+    public void wholeNameMatchesComeFirstThenByName() {
+        assertEquals(Arrays.asList("Choir", "Adult Choir", "Children's Choir"), names(index.find("choir", 10)));
+    }
+
+    @Test
+    public void matchesAcrossWordsOfTheWholeName() {
+        assertEquals(Collections.singletonList("Adult Choir"), names(index.find("adult ch", 10)));
+    }
+
+    @Test
+    public void ignoresCaseAndSurroundingSpace() {
+        assertEquals(Collections.singletonList("Lectors"), names(index.find("  LECT ", 10)));
+    }
+
+    @Test
+    public void aMinistryIsReturnedOnceWhenSeveralWordsMatch() {
+        MinistryNameIndex repeated = new MinistryNameIndex(Collections.singletonList(new Identity("Prayer and Praise", 9)));
+
+        assertEquals(Collections.singletonList("Prayer and Praise"), names(repeated.find("pra", 10)));
+    }
+
+    @Test
+    public void limitsTheResults() {
+        assertEquals(Arrays.asList("Choir", "Adult Choir"), names(index.find("choir", 2)));
+        assertTrue(index.find("choir", 0).isEmpty());
+    }
+
+    @Test
+    public void noMatchesForUnknownOrEmptyPrefixes() {
+        assertTrue(index.find("zzz", 10).isEmpty());
+        assertTrue(index.find("", 10).isEmpty());
+        assertTrue(index.find("   ", 10).isEmpty());
+        assertTrue(index.find(null, 10).isEmpty());
+    }
+
+    @Test
+    public void skipsMinistriesWithoutNames() {
+        MinistryNameIndex sparse = new MinistryNameIndex(Arrays.asList(new Identity(null, 1), new Identity("", 2), new Identity("Ushers", 3)));
+
+        assertEquals(Collections.singletonList("Ushers"), names(sparse.find("u", 10)));
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        assertTrue(new MinistryNameIndex(new ArrayList<>()).find("a", 10).isEmpty());
+    }
+
+    @Test
+    public void returnsTheMinistriesThemselves() {
+        assertEquals(Collections.singletonList(7), index.find("lect", 10).stream().map(Identity::getId).collect(Collectors.toList()));
+    }
+
+    // ----- Private -----
+    private static List<String> names(List<Identity> ministries) {
+        return ministries.stream().map(Identity::getName).collect(Collectors.toList());
+    }
+}
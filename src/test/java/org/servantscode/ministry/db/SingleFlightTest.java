@@ -0,0 +1,219 @@
+package org.servantscode.ministry.db;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        ReadRouting.require(null);
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentIdenticalReadsShareOneExecution() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-shared", 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> flight.get(1, "roster", blocking("value", started, release)));
+        started.await();
+
+        List<Thread> waiters = new ArrayList<>();
+        List<Future<String>> followers = new ArrayList<>();
+        for(int i = 0; i < 4; i++)
+            followers.add(executor.submit(() -> {
+                synchronized (waiters) { waiters.add(Thread.currentThread()); }
+                return flight.get(1, "roster", counting("other"));
+            }));
+        awaitParked(waiters, 4);
+
+        release.countDown();
+        assertEquals("value", leader.get());
+        for(Future<String> follower: followers)
+            assertEquals("value", follower.get());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void resultIsSharedForTheWindow() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-window", TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals("first", flight.get(1, "roster", counting("first")));
+        assertEquals("first", flight.get(1, "roster", counting("second")));
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void resultIsNotSharedAfterTheWindow() throws InterruptedException {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-expired", 20);
+
+        assertEquals("first", flight.get(1, "roster", counting("first")));
+        Thread.sleep(60);
+        assertEquals("second", flight.get(1, "roster", counting("second")));
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void withoutAWindowSequentialReadsEachExecute() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-no-window", 0);
+
+        assertEquals("first", flight.get(1, "roster", counting("first")));
+        assertEquals("second", flight.get(1, "roster", counting("second")));
+    }
+
+    @Test
+    public void organizationsAndKeysAreNotShared() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-keys", TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals("a", flight.get(1, "roster", counting("a")));
+        assertEquals("b", flight.get(2, "roster", counting("b")));
+        assertEquals("c", flight.get(1, "roles", counting("c")));
+        assertEquals("d", flight.get(1, null, counting("d")));
+        assertEquals("d", flight.get(1, null, counting("e")));
+        assertEquals(4, executions.get());
+    }
+
+    @Test
+    public void invalidatedResultsAreReadAgain() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-invalidate", TimeUnit.MINUTES.toMillis(1));
+
+        flight.get(1, "roster", counting("first"));
+        flight.get(2, "roster", counting("other"));
+        flight.invalidate(1, "roster");
+        assertEquals("second", flight.get(1, "roster", counting("second")));
+        assertEquals("other", flight.get(2, "roster", counting("third")));
+
+        flight.invalidateOrg(2);
+        assertEquals("fourth", flight.get(2, "roster", counting("fourth")));
+
+        flight.clear();
+        assertEquals("fifth", flight.get(1, "roster", counting("fifth")));
+    }
+
+    @Test(timeout = 10000)
+    public void failureReachesWaitersAndIsNotKept() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-failure", TimeUnit.MINUTES.toMillis(1));
+        IllegalStateException failure = new IllegalStateException("database down");
+
+        Throwable[] thrown = shareFailure(flight, failure);
+        assertSame(failure, thrown[0]);
+        assertSame(failure, thrown[1]);
+
+        assertEquals("recovered", flight.get(1, "roster", counting("recovered")));
+    }
+
+    @Test(timeout = 10000)
+    public void errorsReachWaitersRatherThanLeaveThemBlocked() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-error", TimeUnit.MINUTES.toMillis(1));
+        Error failure = new StackOverflowError("deep");
+
+        Throwable[] thrown = shareFailure(flight, failure);
+        assertSame(failure, thrown[0]);
+        assertSame(failure, thrown[1]);
+
+        assertEquals("recovered", flight.get(1, "roster", counting("recovered")));
+    }
+
+    @Test
+    public void readsRequiringAPositionAreNotShared() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test-position", TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals("first", flight.get(1, "roster", counting("first")));
+        ReadRouting.require("0/16B3748");
+        assertEquals("second", flight.get(1, "roster", counting("second")));
+        assertEquals("third", flight.get(1, "roster", counting("third")));
+        ReadRouting.require(null);
+        assertEquals("first", flight.get(1, "roster", counting("fourth")));
+    }
+
+    // ----- Private -----
+    /** Has a leader fail with the given throwable while a follower waits on it; returns what each saw. */
+    private Throwable[] shareFailure(SingleFlight<String, String> flight, Throwable failure) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> waiters = new ArrayList<>();
+
+        Future<Throwable> leader = executor.submit(() -> thrownBy(() -> flight.get(1, "roster", () -> {
+            started.countDown();
+            awaitQuietly(release);
+            if(failure instanceof Error)
+                throw (Error) failure;
+            throw (RuntimeException) failure;
+        })));
+        started.await();
+
+        Future<Throwable> follower = executor.submit(() -> {
+            synchronized (waiters) { waiters.add(Thread.currentThread()); }
+            return thrownBy(() -> flight.get(1, "roster", counting("unused")));
+        });
+        awaitParked(waiters, 1);
+        release.countDown();
+
+        Throwable[] thrown = {leader.get(), follower.get()};
+        assertEquals(0, executions.get());
+        return thrown;
+    }
+
+    private Supplier<String> counting(String value) {
+        return () -> {
+            executions.incrementAndGet();
+            return value;
+        };
+    }
+
+    private Supplier<String> blocking(String value, CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            executions.incrementAndGet();
+            started.countDown();
+            awaitQuietly(release);
+            return value;
+        };
+    }
+
+    private static Throwable thrownBy(Runnable action) {
+        try {
+            action.run();
+        } catch (Throwable t) {
+            return t;
+        }
+        fail("Expected a failure");
+        return null;
+    }
+
+    /** Waits until the threads have registered and are parked waiting on the flight. */
+    private static void awaitParked(List<Thread> threads, int count) throws InterruptedException {
+        while(true) {
+            synchronized (threads) {
+                if(threads.size() == count && threads.stream().allMatch(t -> t.getState() == Thread.State.WAITING))
+                    return;
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
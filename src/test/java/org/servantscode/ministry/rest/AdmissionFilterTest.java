@@ -0,0 +1,124 @@
+package org.servantscode.ministry.rest;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionFilterTest {
+    private static final int ORG = 1;
+    private static final int OTHER_ORG = 2;
+
+    @Test
+    public void burstIsAdmittedThenThrottled() {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-burst", () -> false, 1, 3, 100);
+
+        for(int i = 0; i < 3; i++)
+            assertNull(budget.admit(ORG, false));
+
+        AdmissionFilter.Refusal refusal = budget.admit(ORG, false);
+        assertNotNull(refusal);
+        assertEquals(Response.Status.TOO_MANY_REQUESTS, refusal.status);
+        // One token a minute: the next is most of a minute away.
+        assertTrue(String.valueOf(refusal.retryAfterSeconds), refusal.retryAfterSeconds > 30 && refusal.retryAfterSeconds <= 61);
+    }
+
+    @Test
+    public void tokensRefillOverTime() throws InterruptedException {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-refill", () -> false, 60000, 1, 100);
+
+        assertNull(budget.admit(ORG, false));
+        assertNotNull(budget.admit(ORG, false));
+        Thread.sleep(20);
+        assertNull(budget.admit(ORG, false));
+    }
+
+    @Test
+    public void withoutARateEveryRequestPastTheBurstIsThrottled() {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-no-rate", () -> false, 0, 1, 100);
+
+        assertNull(budget.admit(ORG, false));
+        AdmissionFilter.Refusal refusal = budget.admit(ORG, false);
+        assertNotNull(refusal);
+        assertTrue(refusal.retryAfterSeconds >= 60);
+    }
+
+    @Test
+    public void organizationsHaveTheirOwnBuckets() {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-orgs", () -> false, 1, 1, 100);
+
+        assertNull(budget.admit(ORG, false));
+        assertNotNull(budget.admit(ORG, false));
+        assertNull(budget.admit(OTHER_ORG, false));
+    }
+
+    @Test
+    public void concurrencyIsCappedUntilASlotIsReleased() {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-concurrency", () -> false, 60000, 100, 2);
+
+        assertNull(budget.admit(ORG, true));
+        AdmissionFilter.Slot first = budget.slot(ORG);
+        assertNull(budget.admit(ORG, true));
+        budget.slot(ORG);
+
+        AdmissionFilter.Refusal refusal = budget.admit(ORG, true);
+        assertNotNull(refusal);
+        assertEquals(Response.Status.TOO_MANY_REQUESTS, refusal.status);
+        assertEquals(2, budget.inFlight(ORG));
+
+        first.release();
+        assertEquals(1, budget.inFlight(ORG));
+        assertNull(budget.admit(ORG, true));
+    }
+
+    @Test
+    public void slotIsReleasedOnce() {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-release", () -> false, 60000, 100, 2);
+
+        budget.admit(ORG, true);
+        AdmissionFilter.Slot slot = budget.slot(ORG);
+        budget.admit(ORG, true);
+        budget.slot(ORG);
+
+        slot.release();
+        slot.release();
+        assertEquals(1, budget.inFlight(ORG));
+    }
+
+    @Test
+    public void requestsWithoutASlotDoNotCountAsInFlight() {
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-parked", () -> false, 60000, 100, 1);
+
+        for(int i = 0; i < 5; i++)
+            assertNull(budget.admit(ORG, false));
+        assertEquals(0, budget.inFlight(ORG));
+    }
+
+    @Test
+    public void busyOrganizationsAreShedUnderBacklog() {
+        AtomicBoolean congested = new AtomicBoolean(true);
+        AdmissionFilter.Budget budget = new AdmissionFilter.Budget("test-shed", congested::get, 60000, 100, 10);
+
+        // Nothing in flight yet, so the first request is admitted despite the backlog.
+        assertNull(budget.admit(ORG, true));
+        budget.slot(ORG);
+
+        AdmissionFilter.Refusal refusal = budget.admit(ORG, true);
+        assertNotNull(refusal);
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE, refusal.status);
+        assertEquals(1, refusal.retryAfterSeconds);
+        assertEquals(1, budget.inFlight(ORG));
+
+        // A quiet organization is not shed for the busy one.
+        assertNull(budget.admit(OTHER_ORG, true));
+
+        congested.set(false);
+        assertNull(budget.admit(ORG, true));
+        assertEquals(2, budget.inFlight(ORG));
+    }
+}
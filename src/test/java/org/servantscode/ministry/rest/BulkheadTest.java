@@ -0,0 +1,108 @@
+package org.servantscode.ministry.rest;
+
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadTest {
+    private static final int ORG = 1;
+
+    @Test(timeout = 10000)
+    public void timedOutTaskIsInterruptedAndKeepsItsSlotUntilItEnds() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead("test-timeout", 1, 0, 1, TimeUnit.MINUTES.toMillis(1), true, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        StubResponse slow = new StubResponse();
+        bulkhead.submit(slow.proxy, ORG, () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                finish.await();
+            }
+            return "done";
+        });
+        started.await();
+
+        slow.timeout();
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), ((Response) slow.resumed).getStatus());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+        // Still running, so there is no room for more work.
+        StubResponse refused = new StubResponse();
+        bulkhead.submit(refused.proxy, ORG, () -> "unexpected");
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), ((Response) refused.resumed).getStatus());
+
+        // Once it ends the slot is free again, with no interrupt left over for the next task on the thread.
+        finish.countDown();
+        AtomicBoolean leftOver = new AtomicBoolean();
+        StubResponse next;
+        do {
+            Thread.sleep(5);
+            next = new StubResponse();
+            bulkhead.submit(next.proxy, ORG, () -> {
+                leftOver.set(Thread.currentThread().isInterrupted());
+                return "next";
+            });
+            next.await();
+        } while(next.resumed instanceof Response);
+
+        assertEquals("next", next.resumed);
+        assertFalse(leftOver.get());
+    }
+
+    // ----- Private -----
+    /** An AsyncResponse that records what it was resumed with and lets the test fire its timeout. */
+    private static class StubResponse {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Object resumed;
+        private volatile TimeoutHandler handler;
+        private final AsyncResponse proxy;
+
+        private StubResponse() {
+            proxy = (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(), new Class<?>[] {AsyncResponse.class},
+                    (p, method, args) -> {
+                        switch (method.getName()) {
+                            case "resume":
+                                return resume(args[0]);
+                            case "setTimeoutHandler":
+                                handler = (TimeoutHandler) args[0];
+                                return null;
+                            case "isSuspended":
+                                return resumed == null;
+                            default:
+                                return method.getReturnType() == boolean.class? true: null;
+                        }
+                    });
+        }
+
+        private synchronized boolean resume(Object value) {
+            if(resumed != null)
+                return false;
+            resumed = value;
+            done.countDown();
+            return true;
+        }
+
+        private void timeout() {
+            handler.handleTimeout(proxy);
+        }
+
+        private void await() throws InterruptedException {
+            done.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
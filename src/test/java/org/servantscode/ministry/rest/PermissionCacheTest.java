@@ -0,0 +1,110 @@
+package org.servantscode.ministry.rest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servantscode.commons.security.OrganizationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionCacheTest {
+    private static final String PERMISSION = "ministry.list";
+
+    @Before
+    public void setUp() {
+        OrganizationContext.enableOrganization(1);
+    }
+
+    @Test
+    public void onlyGrantedPermissionsAreCached() {
+        String token = token(inSeconds(300));
+
+        assertFalse(PermissionCache.isGranted(token, PERMISSION));
+        PermissionCache.granted(token, PERMISSION);
+        assertTrue(PermissionCache.isGranted(token, PERMISSION));
+        assertFalse(PermissionCache.isGranted(token, "ministry.delete"));
+    }
+
+    @Test
+    public void anotherTokenDoesNotMatch() {
+        String token = token(inSeconds(300));
+        PermissionCache.granted(token, PERMISSION);
+
+        assertFalse(PermissionCache.isGranted(token(inSeconds(300)), PERMISSION));
+        // Same header and payload with a different signature.
+        assertFalse(PermissionCache.isGranted(token.substring(0, token.lastIndexOf('.') + 1) + "forged", PERMISSION));
+    }
+
+    @Test
+    public void grantsAreKeptPerOrganization() {
+        String token = token(inSeconds(300));
+        PermissionCache.granted(token, PERMISSION);
+
+        OrganizationContext.enableOrganization(2);
+        assertFalse(PermissionCache.isGranted(token, PERMISSION));
+    }
+
+    @Test
+    public void tokensWithoutAUsableExpiryAreNotCached() {
+        String noExp = jwt("{\"sub\":\"" + UUID.randomUUID() + "\"}");
+        PermissionCache.granted(noExp, PERMISSION);
+        assertFalse(PermissionCache.isGranted(noExp, PERMISSION));
+
+        String expired = token(inSeconds(-10));
+        PermissionCache.granted(expired, PERMISSION);
+        assertFalse(PermissionCache.isGranted(expired, PERMISSION));
+
+        String unreadable = encode("{\"alg\":\"HS256\"}") + ".not-json." + "signature";
+        PermissionCache.granted(unreadable, PERMISSION);
+        assertFalse(PermissionCache.isGranted(unreadable, PERMISSION));
+    }
+
+    @Test
+    public void unsignedOrMalformedTokensAreNotCached() {
+        String unsigned = encode("{\"alg\":\"none\"}") + "." + encode("{\"exp\":" + inSeconds(300) + "}") + ".";
+        PermissionCache.granted(unsigned, PERMISSION);
+        assertFalse(PermissionCache.isGranted(unsigned, PERMISSION));
+
+        PermissionCache.granted("opaque-token", PERMISSION);
+        assertFalse(PermissionCache.isGranted("opaque-token", PERMISSION));
+    }
+
+    @Test(timeout = 10000)
+    public void grantsExpireWithTheToken() throws InterruptedException {
+        long exp = inSeconds(2);
+        String token = token(exp);
+        PermissionCache.granted(token, PERMISSION);
+        assertTrue(PermissionCache.isGranted(token, PERMISSION));
+
+        while(System.currentTimeMillis() <= TimeUnit.SECONDS.toMillis(exp))
+            Thread.sleep(50);
+        assertFalse(PermissionCache.isGranted(token, PERMISSION));
+
+        // Nor does granting again revive it.
+        PermissionCache.granted(token, PERMISSION);
+        assertFalse(PermissionCache.isGranted(token, PERMISSION));
+    }
+
+    // ----- Private -----
+    private static long inSeconds(long seconds) {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + seconds;
+    }
+
+    /** A distinct signed-looking token expiring at exp, in epoch seconds. */
+    private static String token(long exp) {
+        return jwt(String.format("{\"sub\":\"%s\",\"exp\":%d}", UUID.randomUUID(), exp));
+    }
+
+    private static String jwt(String claims) {
+        return encode("{\"alg\":\"HS256\",\"typ\":\"JWT\"}") + "." + encode(claims) + "." + encode(UUID.randomUUID().toString());
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}